@@ -0,0 +1,99 @@
+//=====================================================
+//Name:           BenchmarkImages
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Synthetic 8-bit images and markers for the benchmarks.
+//                The gray-level distributions are:
+//                	uniform  one gray level, the sparsest matrices
+//                	noise    independent uniformly distributed levels, the
+//                	         densest matrices
+//                	texture  oriented waves of several periods plus smoothed
+//                	         noise, which spreads the pairs like a natural
+//                	         texture does
+//                All of them are seeded, so every run measures the same data.
+//=====================================================
+
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import java.util.Random;
+import java.util.Vector;
+
+public class BenchmarkImages {
+	public static final String UNIFORM = "uniform";
+	public static final String NOISE = "noise";
+	public static final String TEXTURE = "texture";
+
+	/** Pixels of a width x height image with the given distribution */
+	public static byte[] create(String distribution, int width, int height,
+			long seed) {
+		byte[] pixels = new byte[width * height];
+		Random random = new Random(seed);
+		if (distribution.equals(UNIFORM)) {
+			java.util.Arrays.fill(pixels, (byte) 128);
+		} else if (distribution.equals(NOISE)) {
+			random.nextBytes(pixels);
+		} else if (distribution.equals(TEXTURE)) {
+			// Smoothed noise: a 3x3 box filter of uniform noise
+			byte[] noise = new byte[width * height];
+			random.nextBytes(noise);
+			double[] periods = { 5, 11, 23 };
+			double[] angles = new double[periods.length];
+			for (int k = 0; k < periods.length; k++)
+				angles[k] = random.nextDouble() * Math.PI;
+			for (int y = 0; y < height; y++)
+				for (int x = 0; x < width; x++) {
+					double v = 0;
+					for (int k = 0; k < periods.length; k++)
+						v += Math.sin(2 * Math.PI
+								* (x * Math.cos(angles[k]) + y
+										* Math.sin(angles[k])) / periods[k]);
+					int sum = 0, n = 0;
+					for (int dy = -1; dy <= 1; dy++)
+						for (int dx = -1; dx <= 1; dx++) {
+							int xx = x + dx, yy = y + dy;
+							if (xx >= 0 && xx < width && yy >= 0 && yy < height) {
+								sum += 0xff & noise[yy * width + xx];
+								n++;
+							}
+						}
+					double level = 128 + 25 * v + 0.5 * (sum / (double) n - 128);
+					pixels[y * width + x] = (byte) Math.max(0, Math.min(255,
+							(int) Math.round(level)));
+				}
+		} else {
+			throw new IllegalArgumentException("Unknown distribution: "
+					+ distribution);
+		}
+		return pixels;
+	}
+
+	/** Stack of nSlices texture slices */
+	public static ImageStack createStack(int width, int height, int nSlices) {
+		ImageStack stack = new ImageStack(width, height);
+		for (int s = 1; s <= nSlices; s++)
+			stack.addSlice(null, new ByteProcessor(width, height, create(
+					TEXTURE, width, height, s), null));
+		return stack;
+	}
+
+	/**
+	 * Marker vectors of types 1 and 2 with count markers in all, at random
+	 * positions of a width x height x nSlices stack
+	 */
+	public static Vector createMarkers(int count, int width, int height,
+			int nSlices, long seed) {
+		Random random = new Random(seed);
+		Vector typeVector = new Vector();
+		for (int type = 1; type <= 2; type++) {
+			TextureMeasuresCellCntrMarkerVector mv = new TextureMeasuresCellCntrMarkerVector(
+					type);
+			int n = type == 1 ? count / 2 : count - count / 2;
+			mv.ensureCapacity(n);
+			for (int i = 0; i < n; i++)
+				mv.addMarker(random.nextInt(width), random.nextInt(height), 1
+						+ random.nextInt(nSlices));
+			typeVector.add(mv);
+		}
+		return typeVector;
+	}
+}
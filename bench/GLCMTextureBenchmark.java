@@ -0,0 +1,92 @@
+//=====================================================
+//Name:           GLCMTextureBenchmark
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Time of the analysis of one probe by GLCM_Texture, as done
+//                for each marker: quantization of the probe, co-occurrence
+//                matrices and features. The probes are centered at random
+//                positions of a 1024 x 1024 image, so the time includes the
+//                cache misses of reading the image.
+//                "all" analyzes the four directions of the measurements.
+//=====================================================
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GLCMTextureBenchmark {
+	private static final int SIZE = 1024;
+	// Number of probe positions, a power of 2
+	private static final int POSITIONS = 1024;
+	private static final String[] ALL_DIRECTIONS = { "0 degrees",
+			"45 degrees", "90 degrees", "135 degrees" };
+
+	@Param( { "5", "10", "20" })
+	public int radius;
+
+	@Param( { "1", "3" })
+	public int step;
+
+	@Param( { "0 degrees", "45 degrees", "90 degrees", "135 degrees", "all" })
+	public String direction;
+
+	@Param( { BenchmarkImages.UNIFORM, BenchmarkImages.NOISE,
+			BenchmarkImages.TEXTURE })
+	public String distribution;
+
+	private byte[] pixels;
+	private GLCM_Texture texture;
+	private GLCMWorkspace workspace;
+	private GLCMQuantizer quantizer;
+	private GLCMOffset[] offsets;
+	private int[] x0;
+	private int[] y0;
+	private int next;
+
+	@Setup
+	public void setup() {
+		pixels = BenchmarkImages.create(distribution, SIZE, SIZE, 1);
+		texture = new GLCM_Texture();
+		workspace = GLCMWorkspace.get();
+		quantizer = new GLCMQuantizer(256);
+		if (direction.equals("all")) {
+			int[] steps = new int[ALL_DIRECTIONS.length];
+			java.util.Arrays.fill(steps, step);
+			offsets = GLCMOffset.fromDirections(ALL_DIRECTIONS, steps);
+		} else {
+			offsets = new GLCMOffset[] { GLCMOffset.fromDirection(direction,
+					step) };
+		}
+		Random random = new Random(2);
+		x0 = new int[POSITIONS];
+		y0 = new int[POSITIONS];
+		for (int p = 0; p < POSITIONS; p++) {
+			x0[p] = random.nextInt(SIZE - 2 * radius);
+			y0[p] = random.nextInt(SIZE - 2 * radius);
+		}
+	}
+
+	@Benchmark
+	public double[] probe() {
+		int p = next++ & (POSITIONS - 1);
+		int size = 2 * radius + 1;
+		return texture.run(workspace, pixels, SIZE, x0[p], y0[p], size, size,
+				quantizer, offsets);
+	}
+}
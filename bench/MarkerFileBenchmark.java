@@ -0,0 +1,89 @@
+//=====================================================
+//Name:           MarkerFileBenchmark
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Time of saving and loading marker files, in the XML format
+//                of Cell Counter and in the binary format (.cmb), with the
+//                markers split in two types.
+//=====================================================
+
+import java.io.File;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkerFileBenchmark {
+	private static final String IMAGE = "benchmark.tif";
+
+	@Param( { "1000", "10000", "100000" })
+	public int markers;
+
+	@Param( { "xml", "binary" })
+	public String format;
+
+	private Vector typeVector;
+	private File dir;
+	// Written once, read by load
+	private String loadPath;
+	// Overwritten by save
+	private String savePath;
+
+	@Setup
+	public void setup() {
+		typeVector = BenchmarkImages.createMarkers(markers, 2048, 2048, 10, 4);
+		dir = new File(System.getProperty("java.io.tmpdir"), "MarkerFileBenchmark");
+		dir.mkdirs();
+		String extension = format.equals("xml") ? ".xml"
+				: MarkerReader.BINARY_EXTENSION;
+		loadPath = new File(dir, "load" + extension).getPath();
+		savePath = new File(dir, "save" + extension).getPath();
+		if (!write(loadPath))
+			throw new IllegalStateException("Cannot write " + loadPath);
+	}
+
+	@TearDown
+	public void tearDown() {
+		new File(loadPath).delete();
+		new File(savePath).delete();
+		dir.delete();
+	}
+
+	@Benchmark
+	public boolean save() {
+		return write(savePath);
+	}
+
+	@Benchmark
+	public Vector load() {
+		MarkerReader reader;
+		if (format.equals("xml"))
+			reader = new ReadXML(loadPath);
+		else
+			reader = new ReadBinary(loadPath);
+		reader.readImgProperties(ReadXML.IMAGE_FILE_PATH);
+		return reader.readMarkerData();
+	}
+
+	private boolean write(String path) {
+		if (format.equals("xml"))
+			return new WriteXML(path).writeXML(IMAGE, typeVector, 1);
+		return new WriteBinary(path).writeBinary(IMAGE, typeVector, 1);
+	}
+}
@@ -0,0 +1,116 @@
+//=====================================================
+//Name:           MeasureBenchmark
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Time of measuring all the markers of an image, end to end.
+//                measure is TextureMeasuresMeasurer.measure on the marker
+//                coordinates: grouping by slice, quantization of each slice
+//                and the 8 offsets of every marker, on a pool of threads.
+//                measureAndWrite also writes the rows as Measure Cell does:
+//                in batches to the text file, then to the feature store.
+//=====================================================
+
+import ij.ImageStack;
+import java.io.File;
+import java.util.Vector;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class MeasureBenchmark {
+	private static final int SIZE = 1024;
+
+	@Param( { "1000", "10000", "100000" })
+	public int markers;
+
+	@Param( { "1", "8" })
+	public int slices;
+
+	@Param( { "1", "4" })
+	public int threads;
+
+	private ImageStack stack;
+	private Vector typeVector;
+	private int[] x;
+	private int[] y;
+	private int[] z;
+	private TextureMeasuresMeasurer measurer;
+	private File dir;
+	private File store;
+	private File text;
+
+	@Setup
+	public void setup() {
+		stack = BenchmarkImages.createStack(SIZE, SIZE, slices);
+		typeVector = BenchmarkImages.createMarkers(markers, SIZE, SIZE,
+				slices, 3);
+		x = new int[markers];
+		y = new int[markers];
+		z = new int[markers];
+		int n = 0;
+		for (int t = 0; t < typeVector.size(); t++) {
+			TextureMeasuresCellCntrMarkerVector mv = (TextureMeasuresCellCntrMarkerVector) typeVector
+					.get(t);
+			for (int i = 0; i < mv.size(); i++, n++) {
+				x[n] = mv.getX(i);
+				y[n] = mv.getY(i);
+				z[n] = mv.getZ(i);
+			}
+		}
+		measurer = new TextureMeasuresMeasurer();
+		measurer.setThreads(threads);
+		dir = new File(System.getProperty("java.io.tmpdir"), "TextureMeasuresBenchmark");
+		dir.mkdirs();
+		store = new File(dir, "TextureMeasures.tfs");
+		text = new File(dir, "TextureMeasures.txt");
+	}
+
+	@Setup(Level.Invocation)
+	public void deleteResults() {
+		store.delete();
+		new File(store.getPath() + ".idx").delete();
+		text.delete();
+	}
+
+	@TearDown
+	public void tearDown() {
+		deleteResults();
+		dir.delete();
+	}
+
+	@Benchmark
+	public double[] measure() {
+		return measurer.measure(stack, x, y, z, markers);
+	}
+
+	@Benchmark
+	public int measureAndWrite() throws Exception {
+		TextureMeasuresResults results = new TextureMeasuresResults(
+				new TextureFeatureStore(store.getPath()), text.getPath(), null,
+				"benchmark", measurer.getColumnHeadings());
+		TextureMeasuresMeasurement measurement = new TextureMeasuresMeasurement(
+				new TextureMeasuresMeasurer(measurer), stack, typeVector,
+				results);
+		measurement.run();
+		if (measurement.getError() != null)
+			throw measurement.getError();
+		return measurement.getRowCount();
+	}
+}
@@ -0,0 +1,69 @@
+//=====================================================
+//Name:           GLCMOffset
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Displacement (dx,dy) from a pixel a to its neighbor b in a
+//                co-occurrence pair. The y axis points down, as in the image,
+//                so 90 degrees is a negative dy. Any displacement is allowed;
+//                the eight directions that are multiples of 45 degrees can
+//                also be given by name ("0 degrees" ... "315 degrees") and a
+//                step, as in the rest of the plugin.
+//=====================================================
+
+public final class GLCMOffset {
+	public static final String[] DIRECTION_NAMES = { "0 degrees",
+			"45 degrees", "90 degrees", "135 degrees", "180 degrees",
+			"225 degrees", "270 degrees", "315 degrees" };
+	// Unit displacement of each named direction
+	private static final int[] UNIT_DX = { 1, 1, 0, -1, -1, -1, 0, 1 };
+	private static final int[] UNIT_DY = { 0, -1, -1, -1, 0, 1, 1, 1 };
+
+	private final int dx;
+	private final int dy;
+
+	public GLCMOffset(int dx, int dy) {
+		if (dx == 0 && dy == 0)
+			throw new IllegalArgumentException("The offset cannot be (0,0)");
+		this.dx = dx;
+		this.dy = dy;
+	}
+
+	/** Offset of step pixels in a named direction ("0 degrees", "45 degrees", ...) */
+	public static GLCMOffset fromDirection(String direction, int step) {
+		for (int i = 0; i < DIRECTION_NAMES.length; i++)
+			if (DIRECTION_NAMES[i].equals(direction))
+				return new GLCMOffset(step * UNIT_DX[i], step * UNIT_DY[i]);
+		throw new IllegalArgumentException("Unknown direction: " + direction);
+	}
+
+	/** Offsets of the (direction, step) pairs directions[k], steps[k] */
+	public static GLCMOffset[] fromDirections(String[] directions, int[] steps) {
+		GLCMOffset[] offsets = new GLCMOffset[directions.length];
+		for (int k = 0; k < offsets.length; k++)
+			offsets[k] = fromDirection(directions[k], steps[k]);
+		return offsets;
+	}
+
+	public int getDx() {
+		return dx;
+	}
+
+	public int getDy() {
+		return dy;
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof GLCMOffset))
+			return false;
+		GLCMOffset other = (GLCMOffset) o;
+		return dx == other.dx && dy == other.dy;
+	}
+
+	public int hashCode() {
+		return 31 * dx + dy;
+	}
+
+	public String toString() {
+		return "(" + dx + "," + dy + ")";
+	}
+}
@@ -0,0 +1,59 @@
+//=====================================================
+//Name:           GLCMOffsetPlan
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Reduces a list of requested offsets to the offsets that
+//                actually have to be computed. Pairs are counted in both
+//                orders, so the matrix of (dx,dy) is the same as that of
+//                (-dx,-dy): 0 and 180 degrees give the same features, and so
+//                do 90 and 270 degrees. Each matrix is computed once, for
+//                the first offset that requests it, and its features are
+//                copied to every offset that maps onto it.
+//=====================================================
+
+public class GLCMOffsetPlan {
+	private GLCMOffset[] uniqueOffsets;
+	// Index in uniqueOffsets of each requested offset
+	private int[] source;
+
+	public GLCMOffsetPlan(GLCMOffset[] offsets) {
+		source = new int[offsets.length];
+		GLCMOffset[] unique = new GLCMOffset[offsets.length];
+		int nUnique = 0;
+		for (int k = 0; k < offsets.length; k++) {
+			int dx = offsets[k].getDx();
+			int dy = offsets[k].getDy();
+			int u = 0;
+			while (u < nUnique
+					&& !(unique[u].getDx() == dx && unique[u].getDy() == dy)
+					&& !(unique[u].getDx() == -dx && unique[u].getDy() == -dy))
+				u++;
+			if (u == nUnique)
+				unique[nUnique++] = offsets[k];
+			source[k] = u;
+		}
+		uniqueOffsets = new GLCMOffset[nUnique];
+		System.arraycopy(unique, 0, uniqueOffsets, 0, nUnique);
+	}
+
+	/** Offsets to give to the analyzer */
+	public GLCMOffset[] getUniqueOffsets() {
+		return uniqueOffsets;
+	}
+
+	/** Number of requested offsets */
+	public int getOffsetCount() {
+		return source.length;
+	}
+
+	/**
+	 * Copies the features of the unique offsets, nFeatures per offset, to the
+	 * requested offsets, in their order, starting at dest[destPos]
+	 */
+	public void expand(double[] features, int nFeatures, double[] dest,
+			int destPos) {
+		for (int k = 0; k < source.length; k++)
+			System.arraycopy(features, source[k] * nFeatures, dest, destPos + k
+					* nFeatures, nFeatures);
+	}
+}
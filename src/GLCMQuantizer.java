@@ -0,0 +1,223 @@
+//=====================================================
+//Name:           GLCMQuantizer
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Maps the gray values of a slice into a small number of
+//                gray levels before the co-occurrence matrices are
+//                accumulated. The mapping is built once per slice and shared
+//                by every marker on it.
+//                8-bit and 16-bit slices are mapped through a lookup table
+//                (256 or 65536 entries); 32-bit slices are binned linearly.
+//                Pixels are quantized while a region is read from the slice,
+//                so no converted copy of the slice is ever made.
+//=====================================================
+
+import ij.process.ImageProcessor;
+
+public class GLCMQuantizer {
+	public static final int FULL_RANGE = 0;
+	public static final int MIN_MAX = 1;
+	public static final int PERCENTILE = 2;
+	public static final String[] RANGE_NAMES = { "Full range", "Min-max",
+			"Percentile" };
+	public static final String[] LEVEL_NAMES = { "8", "16", "32", "64", "256" };
+
+	// Number of bins of the histogram used to find the percentiles of a
+	// 32-bit slice
+	private static final int FLOAT_BINS = 65536;
+
+	private int levels;
+	// Lookup table for 8 and 16-bit values
+	private byte[] lut;
+	private boolean identity;
+	// Linear binning of 32-bit values: level = (v-min)*scale
+	private double min;
+	private double scale;
+
+	/** Maps the whole 0-255 range into the given number of levels */
+	public GLCMQuantizer(int levels) {
+		this((int[]) null, levels, FULL_RANGE, 0);
+	}
+
+	/**
+	 * Maps the range of an 8-bit slice into the given number of levels. The
+	 * range is 0-255 (FULL_RANGE), the minimum and maximum of the histogram
+	 * (MIN_MAX), or the histogram range after saturating the given
+	 * percentage of pixels, half at each end (PERCENTILE).
+	 */
+	public GLCMQuantizer(int[] histogram, int levels, int rangeMode,
+			double saturated) {
+		checkLevels(levels);
+		this.levels = levels;
+		int[] range = range(histogram, 256, rangeMode, saturated);
+		buildLut(256, range[0], range[1]);
+		identity = levels == 256 && range[0] == 0 && range[1] == 255;
+	}
+
+	/**
+	 * Maps the range of an 8, 16 or 32-bit slice into the given number of
+	 * levels. Only 8-bit slices use their whole 0-255 span as the full range.
+	 * 16-bit slices rarely use more than a small part of 0-65535 (12-bit
+	 * cameras, for instance), and 32-bit slices have no natural range, so
+	 * their full range is their minimum and maximum, as with MIN_MAX.
+	 */
+	public GLCMQuantizer(ImageProcessor ip, int levels, int rangeMode,
+			double saturated) {
+		checkLevels(levels);
+		this.levels = levels;
+		Object pixels = ip.getPixels();
+		if (pixels instanceof byte[]) {
+			byte[] p = (byte[]) pixels;
+			int[] histogram = new int[256];
+			for (int i = 0; i < p.length; i++)
+				histogram[0xff & p[i]]++;
+			int[] range = range(histogram, 256, rangeMode, saturated);
+			buildLut(256, range[0], range[1]);
+			identity = levels == 256 && range[0] == 0 && range[1] == 255;
+		} else if (pixels instanceof short[]) {
+			short[] p = (short[]) pixels;
+			int[] histogram = new int[65536];
+			for (int i = 0; i < p.length; i++)
+				histogram[0xffff & p[i]]++;
+			int[] range = range(histogram, 65536,
+					rangeMode == FULL_RANGE ? MIN_MAX : rangeMode, saturated);
+			buildLut(65536, range[0], range[1]);
+		} else if (pixels instanceof float[]) {
+			float[] p = (float[]) pixels;
+			double lo = Double.MAX_VALUE;
+			double hi = -Double.MAX_VALUE;
+			for (int i = 0; i < p.length; i++) {
+				float v = p[i];
+				if (v < lo)
+					lo = v;
+				if (v > hi)
+					hi = v;
+			}
+			if (lo > hi)
+				lo = hi = 0; // only NaNs
+			if (rangeMode == PERCENTILE && hi > lo) {
+				int[] histogram = new int[FLOAT_BINS];
+				double binScale = (FLOAT_BINS - 1) / (hi - lo);
+				for (int i = 0; i < p.length; i++)
+					if (!Float.isNaN(p[i]))
+						histogram[(int) ((p[i] - lo) * binScale)]++;
+				int[] range = range(histogram, FLOAT_BINS, rangeMode, saturated);
+				double binWidth = (hi - lo) / (FLOAT_BINS - 1);
+				hi = lo + (range[1] + 1) * binWidth;
+				lo = lo + range[0] * binWidth;
+			}
+			min = lo;
+			scale = hi > lo ? levels / (hi - lo) : 0;
+		} else
+			throw new IllegalArgumentException(
+					"Only 8, 16 and 32-bit grayscale images can be quantized");
+	}
+
+	private static void checkLevels(int levels) {
+		if (levels < 2 || levels > 256)
+			throw new IllegalArgumentException("Gray levels must be between 2 and 256");
+	}
+
+	/**
+	 * Lowest and highest bin of the range of a histogram with the given
+	 * number of bins
+	 */
+	private static int[] range(int[] histogram, int bins, int rangeMode,
+			double saturated) {
+		int lo = 0;
+		int hi = bins - 1;
+		if (histogram != null && rangeMode != FULL_RANGE) {
+			long total = 0;
+			for (int v = 0; v < bins; v++)
+				total += histogram[v];
+			long threshold = rangeMode == PERCENTILE ? (long) (total
+					* saturated / 200.0) : 0;
+			long count = 0;
+			for (lo = 0; lo < bins - 1; lo++) {
+				count += histogram[lo];
+				if (count > threshold)
+					break;
+			}
+			count = 0;
+			for (hi = bins - 1; hi > lo; hi--) {
+				count += histogram[hi];
+				if (count > threshold)
+					break;
+			}
+		}
+		return new int[] { lo, hi };
+	}
+
+	private void buildLut(int size, int lo, int hi) {
+		lut = new byte[size];
+		double scale = levels / (double) (hi - lo + 1);
+		for (int v = 0; v < size; v++) {
+			int level = (int) ((v - lo) * scale);
+			if (v < lo)
+				level = 0;
+			else if (level >= levels)
+				level = levels - 1;
+			lut[v] = (byte) level;
+		}
+	}
+
+	public int getLevels() {
+		return levels;
+	}
+
+	/** Gray level of an 8-bit value */
+	public int map(int value) {
+		return 0xff & lut[value];
+	}
+
+	/** True if every value maps onto itself, so the table can be skipped */
+	public boolean isIdentity() {
+		return identity;
+	}
+
+	/** Quantizes count 8-bit values of src starting at srcPos into dest */
+	public void map(byte[] src, int srcPos, byte[] dest, int destPos, int count) {
+		if (identity) {
+			System.arraycopy(src, srcPos, dest, destPos, count);
+			return;
+		}
+		for (int n = 0; n < count; n++)
+			dest[destPos + n] = lut[0xff & src[srcPos + n]];
+	}
+
+	/**
+	 * Quantizes the region (x0,y0,width,height) of a byte[], short[] or
+	 * float[] slice whose rows are sliceWidth pixels long. The region is
+	 * stored row by row in dest, which is returned.
+	 */
+	public byte[] map(Object slicePixels, int sliceWidth, int x0, int y0,
+			int width, int height, byte[] dest) {
+		if (slicePixels instanceof byte[]) {
+			byte[] p = (byte[]) slicePixels;
+			for (int y = 0; y < height; y++)
+				map(p, (y0 + y) * sliceWidth + x0, dest, y * width, width);
+		} else if (slicePixels instanceof short[]) {
+			short[] p = (short[]) slicePixels;
+			for (int y = 0; y < height; y++) {
+				int i = (y0 + y) * sliceWidth + x0;
+				int j = y * width;
+				for (int x = 0; x < width; x++)
+					dest[j + x] = lut[0xffff & p[i + x]];
+			}
+		} else {
+			float[] p = (float[]) slicePixels;
+			int top = levels - 1;
+			for (int y = 0; y < height; y++) {
+				int i = (y0 + y) * sliceWidth + x0;
+				int j = y * width;
+				for (int x = 0; x < width; x++) {
+					// NaN compares false and ends up in level 0
+					double v = (p[i + x] - min) * scale;
+					int level = v > 0 ? (int) v : 0;
+					dest[j + x] = (byte) (level > top ? top : level);
+				}
+			}
+		}
+		return dest;
+	}
+}
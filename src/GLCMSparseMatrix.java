@@ -0,0 +1,104 @@
+//=====================================================
+//Name:           GLCMSparseMatrix
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Co-occurrence counts of a small region stored as an
+//                open-addressing hash of (a,b) -> count. Only the entries
+//                that were actually hit are visited when computing features.
+//=====================================================
+
+public class GLCMSparseMatrix {
+	private static final int EMPTY = -1;
+
+	private int[] keys;
+	private int[] counts;
+	// Slots in the order they were first used, so that the entries can be
+	// iterated and cleared without scanning the whole table
+	private int[] used;
+	private int size;
+	private int mask;
+
+	/** Creates a matrix able to hold the given number of entries without rehashing */
+	public GLCMSparseMatrix(int expectedEntries) {
+		int capacity = 16;
+		while (capacity < 2 * expectedEntries)
+			capacity <<= 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		counts = new int[capacity];
+		used = new int[capacity / 2 + 1];
+		mask = capacity - 1;
+		size = 0;
+		java.util.Arrays.fill(keys, EMPTY);
+	}
+
+	/** Removes all entries; the cost is proportional to the number of entries */
+	public void clear() {
+		for (int n = 0; n < size; n++) {
+			keys[used[n]] = EMPTY;
+			counts[used[n]] = 0;
+		}
+		size = 0;
+	}
+
+	/** Adds one occurrence of the pair (a,b) */
+	public void add(int a, int b) {
+		int key = (a << 16) | b;
+		int slot = (key * 0x9E3779B9) >>> 7 & mask;
+		while (keys[slot] != key) {
+			if (keys[slot] == EMPTY) {
+				if (size == used.length) {
+					rehash();
+					add(a, b);
+					return;
+				}
+				keys[slot] = key;
+				used[size++] = slot;
+				break;
+			}
+			slot = (slot + 1) & mask;
+		}
+		counts[slot]++;
+	}
+
+	private void rehash() {
+		int[] oldKeys = keys;
+		int[] oldCounts = counts;
+		int[] oldUsed = used;
+		int oldSize = size;
+		allocate(2 * keys.length);
+		for (int n = 0; n < oldSize; n++) {
+			int slot = oldUsed[n];
+			int key = oldKeys[slot];
+			int newSlot = (key * 0x9E3779B9) >>> 7 & mask;
+			while (keys[newSlot] != EMPTY)
+				newSlot = (newSlot + 1) & mask;
+			keys[newSlot] = key;
+			counts[newSlot] = oldCounts[slot];
+			used[size++] = newSlot;
+		}
+	}
+
+	/** Number of non-zero entries */
+	public int size() {
+		return size;
+	}
+
+	/** First gray level of the n-th non-zero entry */
+	public int getA(int n) {
+		return keys[used[n]] >>> 16;
+	}
+
+	/** Second gray level of the n-th non-zero entry */
+	public int getB(int n) {
+		return keys[used[n]] & 0xffff;
+	}
+
+	/** Count of the n-th non-zero entry */
+	public int getCount(int n) {
+		return counts[used[n]];
+	}
+}
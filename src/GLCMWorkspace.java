@@ -0,0 +1,169 @@
+//=====================================================
+//Name:           GLCMWorkspace
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Buffers used by GLCM_Texture while analyzing one region:
+//                the co-occurrence counts (a flat dense matrix per offset or
+//                a sparse matrix per offset), the marginal counts of a, b,
+//                a+b and |a-b|, the
+//                c log c table, the sum and difference histograms used by
+//                SDH_Texture, the offset tables, the region itself and the
+//                feature vector.
+//                A workspace only grows, so once it has seen the largest
+//                region and level count no more memory is allocated.
+//                A workspace must not be shared between threads; get()
+//                returns the one that belongs to the calling thread.
+//=====================================================
+
+import java.util.Arrays;
+
+public class GLCMWorkspace {
+	private static final ThreadLocal current = new ThreadLocal() {
+		protected Object initialValue() {
+			return new GLCMWorkspace();
+		}
+	};
+
+	// These are read and written directly by the analyzers in their inner
+	// loops
+	int nOffsets;
+	int levels;
+	boolean sparse;
+	int[] counts = new int[0];
+	GLCMSparseMatrix[] sparseCounts = new GLCMSparseMatrix[0];
+	double[] pixelCounter = new double[0];
+	long[] px = new long[0];
+	long[] py = new long[0];
+	long[] pxPlusY = new long[0];
+	long[] pxMinusY = new long[0];
+	double[] features = new double[0];
+	int[] delta = new int[0];
+	int[] x0 = new int[0];
+	int[] x1 = new int[0];
+	int[] y0 = new int[0];
+	int[] y1 = new int[0];
+	private byte[] region = new byte[0];
+	private double[] cLogC = new double[0];
+	int[] sumHist = new int[0];
+	int[] diffHist = new int[0];
+
+	// Largest count whose c log c is tabulated; larger counts only occur in
+	// very large regions and are computed directly
+	private static final int CLOGC_TABLE_LIMIT = 1 << 16;
+
+	/** Workspace of the calling thread */
+	public static GLCMWorkspace get() {
+		return (GLCMWorkspace) current.get();
+	}
+
+	/** Buffer able to hold a region of the given number of pixels */
+	public byte[] getRegion(int size) {
+		if (region.length < size)
+			region = new byte[size];
+		return region;
+	}
+
+	/** Features computed by the last analysis */
+	public double[] getFeatures() {
+		return features;
+	}
+
+	/**
+	 * Table of c log c for the counts 0 ... min(maxCount, CLOGC_TABLE_LIMIT)
+	 * (0 log 0 is taken as 0). The table grows when needed and is kept.
+	 */
+	double[] getCLogC(long maxCount) {
+		int size = (int) Math.min(maxCount, CLOGC_TABLE_LIMIT) + 1;
+		if (cLogC.length < size) {
+			int c0 = cLogC.length;
+			cLogC = Arrays.copyOf(cLogC,
+					Math.min(Math.max(size, 2 * c0), CLOGC_TABLE_LIMIT + 1));
+			for (int c = Math.max(c0, 1); c < cLogC.length; c++)
+				cLogC[c] = c * Math.log(c);
+		}
+		return cLogC;
+	}
+
+	/**
+	 * Makes room for nOffsets matrices of levels x levels and clears them.
+	 * Sparse matrices are sized for the given number of entries. The feature
+	 * vector holds nFeatures per offset.
+	 */
+	void prepare(int nOffsets, int nFeatures, int levels, boolean sparse,
+			int maxEntries) {
+		this.nOffsets = nOffsets;
+		this.levels = levels;
+		this.sparse = sparse;
+		if (sparse) {
+			if (sparseCounts.length < nOffsets)
+				sparseCounts = Arrays.copyOf(sparseCounts, nOffsets);
+			for (int k = 0; k < nOffsets; k++)
+				if (sparseCounts[k] == null)
+					sparseCounts[k] = new GLCMSparseMatrix(maxEntries);
+				else
+					sparseCounts[k].clear();
+		} else {
+			int size = nOffsets * levels * levels;
+			if (counts.length < size)
+				counts = new int[size];
+			else
+				Arrays.fill(counts, 0, size, 0);
+		}
+		prepareOffsets(nOffsets, nFeatures);
+		if (px.length < levels) {
+			px = new long[levels];
+			py = new long[levels];
+			pxPlusY = new long[2 * levels - 1];
+			pxMinusY = new long[levels];
+		}
+	}
+
+	/**
+	 * Makes room for the sum and difference histograms of nOffsets offsets,
+	 * 2*levels-1 bins each, and clears them
+	 */
+	void prepareHistograms(int nOffsets, int nFeatures, int levels) {
+		this.nOffsets = nOffsets;
+		this.levels = levels;
+		int size = nOffsets * (2 * levels - 1);
+		if (sumHist.length < size) {
+			sumHist = new int[size];
+			diffHist = new int[size];
+		} else {
+			Arrays.fill(sumHist, 0, size, 0);
+			Arrays.fill(diffHist, 0, size, 0);
+		}
+		prepareOffsets(nOffsets, nFeatures);
+	}
+
+	private void prepareOffsets(int nOffsets, int nFeatures) {
+		if (features.length < nFeatures * nOffsets)
+			features = new double[nFeatures * nOffsets];
+		if (pixelCounter.length < nOffsets) {
+			pixelCounter = new double[nOffsets];
+			delta = new int[nOffsets];
+			x0 = new int[nOffsets];
+			x1 = new int[nOffsets];
+			y0 = new int[nOffsets];
+			y1 = new int[nOffsets];
+		} else
+			Arrays.fill(pixelCounter, 0, nOffsets, 0);
+	}
+
+	/**
+	 * Fills the offset tables for a region of width x height: the index
+	 * difference between a pixel and its neighbor, and the range of pixels
+	 * whose neighbor falls inside the region
+	 */
+	void setOffsets(GLCMOffset []offsets, int width, int height) {
+		for (int k = 0; k < nOffsets; k++) {
+			int dx = offsets[k].getDx();
+			int dy = offsets[k].getDy();
+			delta[k] = dy * width + dx;
+			x0[k] = Math.max(0, -dx);
+			x1[k] = width - Math.max(0, dx);
+			y0[k] = Math.max(0, -dy);
+			y1[k] = height - Math.max(0, dy);
+		}
+	}
+}
@@ -26,192 +26,385 @@ import ij.text.*;
 import ij.measure.ResultsTable;
 
 //===========source====================================
-public class GLCM_Texture {
+public class GLCM_Texture implements TextureAnalyzer {
 	static boolean doIcalculateASM = true;
 	static boolean doIcalculateContrast = true;
 	static boolean doIcalculateCorrelation = true;
 	static boolean doIcalculateIDM = true;
 	static boolean doIcalculateEntropy = true;
 
+	public static final int FEATURE_COUNT = 5;
+	public static final int EXTENDED_FEATURE_COUNT = 14;
+	public static final String[] FEATURE_NAMES = { "ASM", "Ct", "Corr", "IDM",
+			"Ent" };
+	public static final String[] EXTENDED_FEATURE_NAMES = { "ASM", "Ct",
+			"Corr", "IDM", "Ent", "SumAvg", "SumVar", "SumEnt", "DiffVar",
+			"DiffEnt", "IMC1", "IMC2", "Shade", "Prom" };
+
+	// Compute the rest of Haralick's features after the first five
+	private boolean extended;
+
+	// Regions whose number of pixel pairs is below this fraction of the
+	// matrix size are accumulated in a sparse matrix, since most of the
+	// dense matrix would be zero
+	static final double SPARSE_FRACTION = 0.25;
+
+	// Below this number of pixel pairs the moments of the correlation can be
+	// combined in 64-bit integers without overflow (n^2 255^2 < 2^63)
+	static final long EXACT_MOMENTS_LIMIT = 1L << 23;
+
+	// Weights of the difference |a-b| in the contrast and the IDM
+	static final int[] CONTRAST_WEIGHT = new int[256];
+	static final double[] IDM_WEIGHT = new double[256];
+	static {
+		for (int d = 0; d < 256; d++) {
+			CONTRAST_WEIGHT[d] = d * d;
+			IDM_WEIGHT[d] = 1.0 / (1 + d * d);
+		}
+	}
+
+	public GLCM_Texture() {
+		this(false);
+	}
+
+	/**
+	 * If extended, nine more features are computed after the first five:
+	 * sum average, sum variance, sum entropy, difference variance,
+	 * difference entropy, the two information measures of correlation,
+	 * cluster shade and cluster prominence
+	 */
+	public GLCM_Texture(boolean extended) {
+		this.extended = extended;
+	}
+
+	public int getFeatureCount() {
+		return extended ? EXTENDED_FEATURE_COUNT : FEATURE_COUNT;
+	}
+
+	public String[] getFeatureNames() {
+		return extended ? EXTENDED_FEATURE_NAMES : FEATURE_NAMES;
+	}
+
 	public void run(byte []pixels, int width, int height, String selectedStep,
 			int step, double []f) {
+		run(pixels, width, height, 256, new String[] { selectedStep },
+				new int[] { step }, f);
+	}
 
-		// The variable a holds the value of the pixel where the Image Processor
-		// is sitting its attention
-		// The variable b holds the value of the pixel which is the neighbor to
-		// the pixel where the Image Processor is sitting its attention
-		int a;
-		int b;
-		double pixelCounter = 0;
+	/**
+	 * Computes the texture features of several (direction, step) pairs in a
+	 * single sweep over the region, using the workspace of the calling
+	 * thread. With n features per pair (see getFeatureCount), the features
+	 * of the k-th pair are stored in f[n*k] ... f[n*k+n-1].
+	 */
+	public void run(byte []pixels, int width, int height, int levels,
+			String []selectedSteps, int []steps, double []f) {
+		double[] features = run(GLCMWorkspace.get(), pixels, width, height,
+				levels, GLCMOffset.fromDirections(selectedSteps, steps));
+		System.arraycopy(features, 0, f, 0, getFeatureCount()
+				* selectedSteps.length);
+	}
+
+	/**
+	 * Computes the texture features of several offsets in a single sweep
+	 * over the region. Each row of the region is visited once
+	 * and its pairs are added to the co-occurrence matrix of every offset that
+	 * can use it. The pixels must already be quantized to the range
+	 * 0 ... levels-1 (see GLCMQuantizer). All buffers come from the
+	 * workspace, so no memory is allocated once the workspace has grown to
+	 * the size of the region. The returned array is the feature vector of
+	 * the workspace, laid out as described above. It is overwritten by the
+	 * next analysis.
+	 */
+	public double[] run(GLCMWorkspace ws, byte []pixels, int width,
+			int height, int levels, GLCMOffset []offsets) {
+		int nOffsets = offsets.length;
+		boolean sparse = isSparse(width, height, levels);
+		int nFeatures = getFeatureCount();
+		ws.prepare(nOffsets, nFeatures, levels, sparse, 2 * width * height);
+		ws.setOffsets(offsets, width, height);
 
 		// ====================================================================================================
-		// This part computes the Gray Level Correlation Matrix based in the
-		// step selected by the user
-
-		int offset, i;
-		double[][] glcm = new double[257][257];
-
-		if (selectedStep.equals("0 degrees")) {
-			for (int y = 0; y <height; y++) {
-				offset = y * width;
-				for (int x = 0; x < width-step; x++) {
-					i = offset + x;
-
-					a = 0xff & pixels[i];
-					b = 0xff & pixels[(x + step)+y*width];
-					glcm[a][b] += 1;
-					glcm[b][a] += 1;
-					pixelCounter += 2;
+		// This part computes the Gray Level Correlation Matrices
+		int levels2 = levels * levels;
+		int[] counts = ws.counts;
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			for (int k = 0; k < nOffsets; k++) {
+				int x0 = ws.x0[k];
+				int x1 = ws.x1[k];
+				if (y < ws.y0[k] || y >= ws.y1[k] || x0 >= x1)
+					continue;
+				int deltak = ws.delta[k];
+				if (sparse) {
+					GLCMSparseMatrix glcmk = ws.sparseCounts[k];
+					for (int i = offset + x0; i < offset + x1; i++) {
+						int a = 0xff & pixels[i];
+						int b = 0xff & pixels[i + deltak];
+						glcmk.add(a, b);
+						glcmk.add(b, a);
+					}
+				} else {
+					int base = k * levels2;
+					for (int i = offset + x0; i < offset + x1; i++) {
+						int a = 0xff & pixels[i];
+						int b = 0xff & pixels[i + deltak];
+						counts[base + a * levels + b]++;
+						counts[base + b * levels + a]++;
+					}
 				}
+				ws.pixelCounter[k] += 2 * (x1 - x0);
 			}
 		}
 
-		if (selectedStep.equals("90 degrees")) {
-			for (int y = step; y <height; y++) {
-				offset = y * width;
-				for (int x = 0; x < width; x++) {
-					i = offset + x;
-
-					a = 0xff & pixels[i];
-					b = 0xff & pixels[x+width*(y - step)];
-					glcm[a][b] += 1;
-					glcm[b][a] += 1;
-					pixelCounter += 2;
-				}
-			}
-		}
+		for (int k = 0; k < nOffsets; k++)
+			computeFeatures(ws, k, nFeatures * k);
+		return ws.features;
+	}
 
-		if (selectedStep.equals("180 degrees")) {
-			for (int y = 0; y <height; y++) {
-				offset = y * width;
-				for (int x = step; x < width; x++) {
-					i = offset + x;
-
-					a = 0xff & pixels[i];
-					b = 0xff & pixels[(x - step)+y*width];
-					glcm[a][b] += 1;
-					glcm[b][a] += 1;
-					pixelCounter += 2;
-				}
-			}
-		}
+	/**
+	 * Horizontal displacement of the neighbor b with respect to a for a
+	 * named direction and a step (see GLCMOffset)
+	 */
+	public static int getDx(String selectedStep, int step) {
+		return GLCMOffset.fromDirection(selectedStep, step).getDx();
+	}
 
-		if (selectedStep.equals("270 degrees")) {
-			for (int y = 0; y <height-step; y++) {
-				offset = y * width;
-				for (int x = 0; x < width; x++) {
-					i = offset + x;
-
-					a = 0xff & pixels[i];
-					b = 0xff & pixels[x+(y + step)*width];
-					glcm[a][b] += 1;
-					glcm[b][a] += 1;
-					pixelCounter += 2;
+	/**
+	 * Vertical displacement of the neighbor b with respect to a. The y axis
+	 * points down, as in the image, so 90 degrees is a negative dy.
+	 */
+	public static int getDy(String selectedStep, int step) {
+		return GLCMOffset.fromDirection(selectedStep, step).getDy();
+	}
+
+	public double[] run(GLCMWorkspace ws, Object slicePixels, int sliceWidth,
+			int x0, int y0, int width, int height, GLCMQuantizer quantizer,
+			GLCMOffset []offsets) {
+		byte[] region = quantizer.map(slicePixels, sliceWidth, x0, y0, width,
+				height, ws.getRegion(width * height));
+		return run(ws, region, width, height, quantizer.getLevels(), offsets);
+	}
+
+	/** True if a region of this size is better analyzed with a sparse matrix */
+	public static boolean isSparse(int width, int height, int levels) {
+		return 2.0 * width * height < SPARSE_FRACTION * levels * levels;
+	}
+
+	/**
+	 * Computes the five features of the k-th matrix of the workspace in a
+	 * single sweep over its non-zero counts. All the features are reduced
+	 * from integer sums:
+	 * 	ASM         = sum c^2 / N^2
+	 * 	contrast    = sum (a-b)^2 c / N
+	 * 	IDM         = sum c / (1+(a-b)^2) / N
+	 * 	entropy     = log N - sum c log c / N
+	 * 	correlation = cov(a,b) / (var(a) var(b)), with the moments taken from
+	 * 	              the marginal counts and sum a b c
+	 * where N is the number of pixel pairs. The difference weights and
+	 * c log c come from precomputed tables, so no logarithm is taken inside
+	 * the loop.
+	 */
+	private void computeFeatures(GLCMWorkspace ws, int k, int idx) {
+		int levels = ws.levels;
+		long n = (long) ws.pixelCounter[k];
+		long[] px = ws.px;
+		long[] py = ws.py;
+		long[] pxPlusY = ws.pxPlusY;
+		long[] pxMinusY = ws.pxMinusY;
+		java.util.Arrays.fill(px, 0, levels, 0);
+		java.util.Arrays.fill(py, 0, levels, 0);
+		java.util.Arrays.fill(pxPlusY, 0, 2 * levels - 1, 0);
+		java.util.Arrays.fill(pxMinusY, 0, levels, 0);
+		double[] cLogC = ws.getCLogC(n);
+		int cLogCSize = cLogC.length;
+
+		long sumC2 = 0;
+		long sumContrast = 0;
+		long sumAB = 0;
+		double sumIDM = 0;
+		double sumCLogC = 0;
+		if (ws.sparse) {
+			GLCMSparseMatrix glcm = ws.sparseCounts[k];
+			int nnz = glcm.size();
+			for (int e = 0; e < nnz; e++) {
+				int a = glcm.getA(e);
+				int b = glcm.getB(e);
+				int c = glcm.getCount(e);
+				int d = a > b ? a - b : b - a;
+				sumC2 += (long) c * c;
+				sumContrast += (long) CONTRAST_WEIGHT[d] * c;
+				sumIDM += IDM_WEIGHT[d] * c;
+				sumCLogC += c < cLogCSize ? cLogC[c] : c * Math.log(c);
+				sumAB += (long) (a * b) * c;
+				px[a] += c;
+				py[b] += c;
+				pxPlusY[a + b] += c;
+				pxMinusY[d] += c;
+			}
+		} else {
+			int[] counts = ws.counts;
+			int base = k * levels * levels;
+			for (int a = 0; a < levels; a++) {
+				int row = base + a * levels;
+				for (int b = 0; b < levels; b++) {
+					int c = counts[row + b];
+					if (c == 0)
+						continue;
+					int d = a > b ? a - b : b - a;
+					sumC2 += (long) c * c;
+					sumContrast += (long) CONTRAST_WEIGHT[d] * c;
+					sumIDM += IDM_WEIGHT[d] * c;
+					sumCLogC += c < cLogCSize ? cLogC[c] : c * Math.log(c);
+					sumAB += (long) (a * b) * c;
+					px[a] += c;
+					py[b] += c;
+					pxPlusY[a + b] += c;
+					pxMinusY[d] += c;
 				}
 			}
 		}
-		// =====================================================================================================
-		// This part divides each member of the glcm matrix by the number of
-		// pixels. The number of pixels was stored in the pixelCounter variable
-		// The number of pixels is used as a normalizing constant
-		for (a = 0; a < 257; a++) {
-			for (b = 0; b < 257; b++) {
-				glcm[a][b] = (glcm[a][b]) / (pixelCounter);
-			}
+
+		double[] f = ws.features;
+		double N = n;
+		if (doIcalculateASM == true)
+			f[idx]=sumC2 / (N * N);
+		if (doIcalculateContrast == true)
+			f[idx + 1]=sumContrast / N;
+		if (doIcalculateCorrelation == true)
+			f[idx + 2]=correlation(px, py, levels, sumAB, n);
+		if (doIcalculateIDM == true)
+			f[idx + 3]=sumIDM / N;
+		double entropy = Math.log(N) - sumCLogC / N;
+		if (doIcalculateEntropy == true)
+			f[idx + 4]=entropy;
+		if (extended)
+			computeExtendedFeatures(ws, n, entropy, idx + 5);
+	}
+
+	/**
+	 * Computes the rest of Haralick's features from the marginals p_x, p_y,
+	 * p_{x+y} and p_{x-y} accumulated by computeFeatures, each in O(L):
+	 * 	sum average       SA = sum k p_{x+y}(k)
+	 * 	sum variance         = sum (k-SA)^2 p_{x+y}(k)
+	 * 	sum entropy          = -sum p_{x+y} log p_{x+y}
+	 * 	difference variance  = variance of p_{x-y}
+	 * 	difference entropy   = -sum p_{x-y} log p_{x-y}
+	 * 	IMC1                 = (HXY - HXY1) / max(HX,HY)
+	 * 	IMC2                 = sqrt(1 - exp(-2 (HXY2 - HXY)))
+	 * 	cluster shade        = sum (k - mx - my)^3 p_{x+y}(k)
+	 * 	cluster prominence   = sum (k - mx - my)^4 p_{x+y}(k)
+	 * where HXY is the entropy and HX, HY the entropies of p_x and p_y.
+	 * Since sum_j p(i,j) = p_x(i), both HXY1 = -sum p(i,j) log(p_x(i) p_y(j))
+	 * and HXY2 = -sum p_x(i) p_y(j) log(p_x(i) p_y(j)) are equal to HX + HY,
+	 * so no further pass over the matrix is needed.
+	 * The sum variance uses the sum average, not the sum entropy of
+	 * Haralick's paper.
+	 */
+	private void computeExtendedFeatures(GLCMWorkspace ws, long n,
+			double entropy, int idx) {
+		int levels = ws.levels;
+		double N = n;
+		double logN = Math.log(N);
+		double[] cLogC = ws.getCLogC(n);
+
+		double meanx = 0, meany = 0, hx = 0, hy = 0;
+		for (int a = 0; a < levels; a++) {
+			meanx += a * (double) ws.px[a];
+			meany += a * (double) ws.py[a];
+			hx += cLogC(cLogC, ws.px[a]);
+			hy += cLogC(cLogC, ws.py[a]);
 		}
+		meanx /= N;
+		meany /= N;
+		hx = logN - hx / N;
+		hy = logN - hy / N;
 
-		// =====================================================================================================
-		// This part calculates the angular second moment; the value is stored
-		// in asm
-		if (doIcalculateASM == true) {
-			double asm = 0.0;
-			for (a = 0; a < 257; a++) {
-				for (b = 0; b < 257; b++) {
-					asm = asm + (glcm[a][b] * glcm[a][b]);
-				}
-			}
-			f[0]=asm;
+		double sumAverage = 0, sumEntropy = 0;
+		for (int k = 0; k < 2 * levels - 1; k++) {
+			sumAverage += k * (double) ws.pxPlusY[k];
+			sumEntropy += cLogC(cLogC, ws.pxPlusY[k]);
+		}
+		sumAverage /= N;
+		sumEntropy = logN - sumEntropy / N;
+		double sumVariance = 0, shade = 0, prominence = 0;
+		double mean = meanx + meany;
+		for (int k = 0; k < 2 * levels - 1; k++) {
+			double p = ws.pxPlusY[k] / N;
+			if (p == 0)
+				continue;
+			sumVariance += (k - sumAverage) * (k - sumAverage) * p;
+			double d = k - mean;
+			double d3 = d * d * d;
+			shade += d3 * p;
+			prominence += d3 * d * p;
 		}
 
-		// =====================================================================================================
-		// This part calculates the contrast; the value is stored in contrast
-		if (doIcalculateContrast == true) {
-			double contrast = 0.0;
-			for (a = 0; a < 257; a++) {
-				for (b = 0; b < 257; b++) {
-					contrast = contrast + (a - b) * (a - b) * (glcm[a][b]);
-				}
-			}
-			f[1]=contrast;
+		double diffMean = 0, diffEntropy = 0;
+		for (int k = 0; k < levels; k++) {
+			diffMean += k * (double) ws.pxMinusY[k];
+			diffEntropy += cLogC(cLogC, ws.pxMinusY[k]);
 		}
+		diffMean /= N;
+		diffEntropy = logN - diffEntropy / N;
+		double diffVariance = 0;
+		for (int k = 0; k < levels; k++)
+			diffVariance += (k - diffMean) * (k - diffMean) * ws.pxMinusY[k];
+		diffVariance /= N;
 
-		// =====================================================================================================
-		// This part calculates the correlation; the value is stored in
-		// correlation
-		// px [] and py [] are arrays to calculate the correlation
-		// meanx and meany are variables to calculate the correlation
-		// stdevx and stdevy are variables to calculate the correlation
-		if (doIcalculateCorrelation == true) {
-			// First step in the calculations will be to calculate px [] and py
-			// []
-			double correlation = 0.0;
-			double px = 0;
-			double py = 0;
-			double meanx = 0.0;
-			double meany = 0.0;
-			double stdevx = 0.0;
-			double stdevy = 0.0;
-
-			for (a = 0; a < 257; a++) {
-				for (b = 0; b < 257; b++) {
-					px = px + a * glcm[a][b];
-					py = py + b * glcm[a][b];
-				}
-			}
+		double hxy1 = hx + hy;
+		double[] f = ws.features;
+		f[idx]=sumAverage;
+		f[idx + 1]=sumVariance;
+		f[idx + 2]=sumEntropy;
+		f[idx + 3]=diffVariance;
+		f[idx + 4]=diffEntropy;
+		f[idx + 5]=(entropy - hxy1) / Math.max(hx, hy);
+		f[idx + 6]=Math.sqrt(Math.max(0, 1 - Math.exp(-2 * (hxy1 - entropy))));
+		f[idx + 7]=shade;
+		f[idx + 8]=prominence;
+	}
 
-			// Now calculate the standard deviations
-			for (a = 0; a < 257; a++) {
-				for (b = 0; b < 257; b++) {
-					stdevx = stdevx + (a - px) * (a - px) * glcm[a][b];
-					stdevy = stdevy + (b - py) * (b - py) * glcm[a][b];
-				}
-			}
+	private static double cLogC(double []table, long c) {
+		return c < table.length ? table[(int) c] : c * Math.log(c);
+	}
 
-			// Now finally calculate the correlation parameter
-			for (a = 0; a < 257; a++) {
-				for (b = 0; b < 257; b++) {
-					correlation = correlation
-							+ ((a - px) * (b - py) * glcm[a][b] / (stdevx * stdevy));
-				}
-			}
-			f[2]=correlation;
-		}
-		// ===============================================================================================
-		// This part calculates the inverse difference moment
-		if (doIcalculateIDM == true) {
-			double IDM = 0.0;
-			for (a = 0; a < 257; a++) {
-				for (b = 0; b < 257; b++) {
-					IDM = IDM + (glcm[a][b] / (1 + (a - b) * (a - b)));
-				}
-			}
-			f[3]=IDM;
+	/**
+	 * Walker's correlation, sum (a-meanx)(b-meany) p / (varx vary), from the
+	 * marginal counts px and py and sum a b c. The moments are combined as
+	 * integers so that a flat region gives 0/0 as in the two-pass formula
+	 * rather than dividing by a rounding error.
+	 */
+	static double correlation(long []px, long []py, int levels, long sumAB,
+			long n) {
+		long sumA = 0, sumB = 0, sumA2 = 0, sumB2 = 0;
+		for (int a = 0; a < levels; a++) {
+			sumA += a * px[a];
+			sumB += a * py[a];
+			sumA2 += (long) (a * a) * px[a];
+			sumB2 += (long) (a * a) * py[a];
 		}
+		return correlation(sumA, sumB, sumA2, sumB2, sumAB, n);
+	}
 
-		// ===============================================================================================
-		// This part calculates the entropy
-		if (doIcalculateEntropy == true) {
-			double entropy = 0.0;
-			for (a = 0; a < 257; a++) {
-				for (b = 0; b < 257; b++) {
-					if (glcm[a][b] == 0) {
-					} else {
-						entropy = entropy
-								- (glcm[a][b] * (Math.log(glcm[a][b])));
-					}
-				}
-			}
-			f[4]=entropy;
+	/**
+	 * Walker's correlation from the raw moments of the counts: sum a c,
+	 * sum b c, sum a^2 c, sum b^2 c and sum a b c over n pixel pairs
+	 */
+	static double correlation(long sumA, long sumB, long sumA2, long sumB2,
+			long sumAB, long n) {
+		double N = n;
+		if (n < EXACT_MOMENTS_LIMIT) {
+			// n^2 varx, n^2 vary and n^2 cov are exact
+			long nVarx = n * sumA2 - sumA * sumA;
+			long nVary = n * sumB2 - sumB * sumB;
+			long nCov = n * sumAB - sumA * sumB;
+			return nCov * N * N / ((double) nVarx * nVary);
 		}
+		double meanx = sumA / N;
+		double meany = sumB / N;
+		double varx = sumA2 / N - meanx * meanx;
+		double vary = sumB2 / N - meany * meany;
+		return (sumAB / N - meanx * meany) / (varx * vary);
 	}
 }
@@ -0,0 +1,223 @@
+//=====================================================
+//Name:           GLCM_TextureMap
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Computes an image per texture feature, where each pixel
+//                holds the feature of the (2*radius+1)x(2*radius+1) window
+//                centered on it (clipped to the image, as for the markers).
+//                Each row is swept from left to right; when the window moves
+//                one pixel, only the pairs of the column that leaves and of
+//                the column that enters are removed from and added to the
+//                co-occurrence counts. The sums from which the features are
+//                reduced (see GLCM_Texture) are updated with every count, so
+//                reading the features of a pixel costs O(1).
+//                Rows are distributed among threads; every row starts from
+//                an empty matrix, so rounding never accumulates beyond a row.
+//                The rows computed so far can be read, and the computation
+//                canceled, from another thread.
+//=====================================================
+
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class GLCM_TextureMap {
+	public static final String[] FEATURE_NAMES = { "ASM", "Contrast",
+			"Correlation", "IDM", "Entropy" };
+
+	private byte[] pixels;
+	private int width;
+	private int height;
+	private int levels;
+	private int radius;
+	private int dx;
+	private int dy;
+	private float[][] maps;
+	private AtomicInteger rowsDone = new AtomicInteger();
+	private volatile boolean canceled;
+
+	/**
+	 * Feature maps of an 8, 16 or 32-bit slice for one offset.
+	 * The slice is quantized with the given quantizer; the returned stack has
+	 * one slice per feature, in the order of FEATURE_NAMES, or is null if
+	 * the computation has been canceled.
+	 */
+	public ImageStack run(ImageProcessor ip, GLCMQuantizer quantizer,
+			int radius, GLCMOffset offset, int nThreads) {
+		width = ip.getWidth();
+		height = ip.getHeight();
+		pixels = quantizer.map(ip.getPixels(), width, 0, 0, width, height,
+				new byte[width * height]);
+		levels = quantizer.getLevels();
+		this.radius = radius;
+		dx = offset.getDx();
+		dy = offset.getDy();
+		maps = new float[FEATURE_NAMES.length][width * height];
+
+		final AtomicInteger nextRow = new AtomicInteger(0);
+		Thread[] threads = new Thread[Math.max(1, nThreads)];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					RowSweep sweep = new RowSweep();
+					for (int y = nextRow.getAndIncrement(); y < height
+							&& !canceled; y = nextRow.getAndIncrement()) {
+						sweep.run(y);
+						rowsDone.incrementAndGet();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		try {
+			for (int t = 0; t < threads.length; t++)
+				threads[t].join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (canceled)
+			return null;
+
+		ImageStack stack = new ImageStack(width, height);
+		for (int i = 0; i < FEATURE_NAMES.length; i++)
+			stack.addSlice(FEATURE_NAMES[i], new FloatProcessor(width, height,
+					maps[i], null));
+		return stack;
+	}
+
+	/** Fraction of the rows computed so far */
+	public double getProgress() {
+		return height > 0 ? rowsDone.get() / (double) height : 0;
+	}
+
+	/** Stops the computation after the rows being computed */
+	public void cancel() {
+		canceled = true;
+	}
+
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	/** Co-occurrence counts and running sums of the window of one thread */
+	private class RowSweep {
+		private int[] counts;
+		private double[] cLogC;
+		private int cLogCSize;
+		private long n, sumC2, sumContrast, sumAB, sumA, sumB, sumA2, sumB2;
+		private double sumIDM, sumCLogC;
+		// Current window
+		private int c0, c1, r0, r1;
+
+		RowSweep() {
+			GLCMWorkspace ws = GLCMWorkspace.get();
+			ws.prepare(1, GLCM_Texture.FEATURE_COUNT, levels, false, 0);
+			counts = ws.counts;
+			int side = 2 * radius + 1;
+			cLogC = ws.getCLogC(2L * side * side);
+			cLogCSize = cLogC.length;
+		}
+
+		void run(int y) {
+			Arrays.fill(counts, 0, levels * levels, 0);
+			n = sumC2 = sumContrast = sumAB = sumA = sumB = sumA2 = sumB2 = 0;
+			sumIDM = sumCLogC = 0;
+			r0 = Math.max(y - radius, 0);
+			r1 = Math.min(y + radius, height - 1);
+			c0 = 0;
+			c1 = -1;
+			for (int c = 0; c <= Math.min(radius, width - 1); c++) {
+				c1 = c;
+				updateColumn(c, 1);
+			}
+
+			int offset = y * width;
+			for (int x = 0; x < width; x++) {
+				storeFeatures(offset + x);
+				if (x - radius >= 0) {
+					updateColumn(x - radius, -1);
+					c0 = x - radius + 1;
+				}
+				if (x + 1 + radius < width) {
+					c1 = x + 1 + radius;
+					updateColumn(c1, 1);
+				}
+			}
+		}
+
+		/**
+		 * Adds (sign=1) or removes (sign=-1) the pairs of the window that
+		 * involve a pixel of column c
+		 */
+		private void updateColumn(int c, int sign) {
+			int delta = dy * width + dx;
+			for (int y = r0; y <= r1; y++) {
+				int i = y * width + c;
+				int a = 0xff & pixels[i];
+				// c is the first pixel of the pair
+				int qx = c + dx;
+				int qy = y + dy;
+				if (qx >= c0 && qx <= c1 && qy >= r0 && qy <= r1)
+					updatePair(a, 0xff & pixels[i + delta], sign);
+				// c is the second pixel of the pair. If the displacement is
+				// vertical the first pixel is in the same column and the pair
+				// has already been counted above.
+				if (dx != 0) {
+					int sx = c - dx;
+					int sy = y - dy;
+					if (sx >= c0 && sx <= c1 && sy >= r0 && sy <= r1)
+						updatePair(0xff & pixels[i - delta], a, sign);
+				}
+			}
+		}
+
+		private void updatePair(int a, int b, int sign) {
+			updateCount(a, b, sign);
+			updateCount(b, a, sign);
+		}
+
+		private void updateCount(int a, int b, int sign) {
+			int cell = a * levels + b;
+			int c = counts[cell];
+			int c2 = c + sign;
+			counts[cell] = c2;
+			int d = a > b ? a - b : b - a;
+			n += sign;
+			sumC2 += (long) c2 * c2 - (long) c * c;
+			sumContrast += sign * GLCM_Texture.CONTRAST_WEIGHT[d];
+			sumIDM += sign * GLCM_Texture.IDM_WEIGHT[d];
+			sumCLogC += clogc(c2) - clogc(c);
+			sumAB += sign * a * b;
+			sumA += sign * a;
+			sumB += sign * b;
+			sumA2 += sign * a * a;
+			sumB2 += sign * b * b;
+			// The double sums keep a rounding residue when every pair has
+			// been removed
+			if (n == 0)
+				sumIDM = sumCLogC = 0;
+		}
+
+		private double clogc(int c) {
+			return c < cLogCSize ? cLogC[c] : c * Math.log(c);
+		}
+
+		private void storeFeatures(int i) {
+			if (n == 0) {
+				// No pair in the window, as GLCM_Texture gives
+				for (int f = 0; f < maps.length; f++)
+					maps[f][i] = Float.NaN;
+				return;
+			}
+			double N = n;
+			maps[0][i] = (float) (sumC2 / (N * N));
+			maps[1][i] = (float) (sumContrast / N);
+			maps[2][i] = (float) GLCM_Texture.correlation(sumA, sumB, sumA2,
+					sumB2, sumAB, n);
+			maps[3][i] = (float) (sumIDM / N);
+			maps[4][i] = (float) (Math.log(N) - sumCLogC / N);
+		}
+	}
+}
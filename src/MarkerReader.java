@@ -0,0 +1,21 @@
+//=====================================================
+//Name:           MarkerReader
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Reader of a marker file, either XML (ReadXML) or binary
+//                (ReadBinary). The properties are identified by
+//                ReadXML.IMAGE_FILE_PATH and ReadXML.CURRENT_TYPE.
+//=====================================================
+
+import java.util.Vector;
+
+public interface MarkerReader {
+	/** Extension of the binary marker files; any other file is read as XML */
+	public static final String BINARY_EXTENSION = ".cmb";
+
+	/** Image file name or current type index, as a string */
+	public String readImgProperties(int valueID);
+
+	/** Vector of TextureMeasuresCellCntrMarkerVector, one per type */
+	public Vector readMarkerData();
+}
@@ -0,0 +1,119 @@
+//=====================================================
+//Name:           ReadBinary
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Reads the binary marker files written by WriteBinary. The
+//                file is memory mapped and decoded in a single pass, without
+//                copying it into the heap.
+//=====================================================
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+public class ReadBinary implements MarkerReader {
+	private String filePath;
+	private ByteBuffer buffer;
+	private String imgFilename;
+	private int currentType;
+	// Position of the first type block
+	private int markerData;
+
+	public ReadBinary(String filePath) {
+		this.filePath = filePath;
+		RandomAccessFile file = null;
+		try {
+			file = new RandomAccessFile(filePath, "r");
+			FileChannel channel = file.getChannel();
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+					.size());
+			readHeader();
+		} catch (IOException e) {
+			System.out.println("IOException " + e.getMessage());
+			buffer = null;
+		} catch (RuntimeException e) {
+			// Buffer underflows and bad lengths of a truncated file
+			System.out.println(filePath + " is not a valid marker file.");
+			buffer = null;
+		} finally {
+			try {
+				if (file != null)
+					file.close(); // the mapping stays valid
+			} catch (IOException e) {
+				// Nothing else to do with the file
+			}
+		}
+	}
+
+	private void readHeader() throws IOException {
+		for (int i = 0; i < WriteBinary.MAGIC.length; i++)
+			if (buffer.get() != WriteBinary.MAGIC[i])
+				throw new IOException(filePath + " is not a binary marker file");
+		int version = buffer.get();
+		if (version != WriteBinary.VERSION)
+			throw new IOException("Unsupported marker file version " + version);
+		byte[] name = new byte[readVarint()];
+		buffer.get(name);
+		imgFilename = new String(name, "UTF-8");
+		currentType = readSigned();
+		markerData = buffer.position();
+	}
+
+	public String readImgProperties(int valueID) {
+		if (buffer == null)
+			return null;
+		switch (valueID) {
+		case (ReadXML.IMAGE_FILE_PATH):
+			return imgFilename;
+		case (ReadXML.CURRENT_TYPE):
+			return "" + currentType;
+		}
+		return null;
+	}
+
+	public Vector readMarkerData() {
+		Vector typeVector = new Vector();
+		if (buffer == null)
+			return typeVector;
+		try {
+			buffer.position(markerData);
+			int nTypes = readVarint();
+			for (int t = 0; t < nTypes; t++) {
+				TextureMeasuresCellCntrMarkerVector markerVector = new TextureMeasuresCellCntrMarkerVector(
+						readSigned());
+				int count = readVarint();
+				markerVector.ensureCapacity(count);
+				int x = 0, y = 0, z = 0;
+				for (int i = 0; i < count; i++) {
+					x += readSigned();
+					y += readSigned();
+					z += readSigned();
+					markerVector.addMarker(x, y, z);
+				}
+				typeVector.add(markerVector);
+			}
+		} catch (RuntimeException e) {
+			System.out.println(filePath + " is not a valid marker file.");
+		}
+		return typeVector;
+	}
+
+	private int readVarint() {
+		int v = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = buffer.get();
+			v |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return v;
+			if (shift > 28)
+				throw new IllegalStateException("Malformed integer");
+		}
+	}
+
+	private int readSigned() {
+		int v = readVarint();
+		return (v >>> 1) ^ -(v & 1);
+	}
+}
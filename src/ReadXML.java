@@ -4,31 +4,29 @@
  * Created on 27 November 2004, 10:47
  */
 
-import ij.IJ;
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Vector;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.SAXException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 
 /**
  *
  * @author  kurt
  *
+ * The marker file is read as a stream, in a single forward pass, so no
+ * document tree is built: the image properties are found at the top of the
+ * file, and the markers are added to their marker vectors as they are read.
  */
-public class ReadXML {
+public class ReadXML implements MarkerReader {
     private boolean verbose;
-    private DocumentBuilderFactory dbf;
-    private DocumentBuilder db;
-    private Document doc;
-    private String str;
+    private String XMLFilePath;
+    private XMLInputFactory factory;
     public static final int IMAGE_FILE_PATH = 0;
     public static final int CURRENT_TYPE = 1;
     /**
@@ -36,101 +34,101 @@ public class ReadXML {
      */
     public ReadXML(String XMLFilePath) {
         setVerbose(verbose);
-        try{
-            dbf = DocumentBuilderFactory.newInstance();
-            db = dbf.newDocumentBuilder();
-            doc = db.parse(new File(XMLFilePath));
-            doc.getDocumentElement().normalize();
-        } catch (SAXException e) {
-            System.out.println(e.getMessage());
-            System.out.println(XMLFilePath + " is not well-formed.");
-        } catch (IOException e) {
-            System.out.println("IOException " + e.getMessage());
-        } catch (ParserConfigurationException e){
-            System.out.println("ParserConfigurationException " + e.getMessage());
-        }
+        this.XMLFilePath = XMLFilePath;
+        factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
     }
-    
+
     public String readImgProperties(int valueID){ //as URL
+        String elementName = null;
         switch(valueID){
             case(IMAGE_FILE_PATH):
-                str = readSingleValue(doc,"Image_Filename");
+                elementName = "Image_Filename";
                 break;
             case(CURRENT_TYPE):
-                str = readSingleValue(doc,"Current_Type");
+                elementName = "Current_Type";
                 break;
         }
-        if (str !=null){
-            return str;
+        if (elementName == null)
+            return null;
+        InputStream in = null;
+        try{
+            in = open();
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            // The properties come before the markers, so only the top of the
+            // file is read
+            while (reader.hasNext()){
+                if (reader.next() == XMLStreamConstants.START_ELEMENT
+                        && reader.getLocalName().equals(elementName))
+                    return reader.getElementText().trim();
+            }
+        } catch (XMLStreamException e) {
+            System.out.println(e.getMessage());
+            System.out.println(XMLFilePath + " is not well-formed.");
+        } catch (IOException e) {
+            System.out.println("IOException " + e.getMessage());
+        } finally {
+            close(in);
         }
         return null;
     }
-    
+
     public Vector readMarkerData(){
         Vector typeVector = new Vector();
-        
-        NodeList markerTypeNodeList = getNodeListFromTag(doc,"Marker_Type");
-        for (int i=0; i<markerTypeNodeList.getLength(); i++){
-            Element markerTypeElement = getElement(markerTypeNodeList, i);
-            NodeList typeNodeList = markerTypeElement.getElementsByTagName("Type");
-            TextureMeasuresCellCntrMarkerVector markerVector = new TextureMeasuresCellCntrMarkerVector(Integer.parseInt(readValue(typeNodeList , 0)));
-            
-            NodeList markerNodeList = markerTypeElement.getElementsByTagName("Marker");
-            for(int j=0; j<markerNodeList.getLength(); j++){
-                Element markerElement = getElement(markerNodeList, j);
-                NodeList markerXNodeList = markerElement.getElementsByTagName("MarkerX");
-                NodeList markerYNodeList = markerElement.getElementsByTagName("MarkerY");
-                NodeList markerZNodeList = markerElement.getElementsByTagName("MarkerZ");
-                TextureMeasuresCellCntrMarker marker = new TextureMeasuresCellCntrMarker();
-                marker.setX(Integer.parseInt(readValue(markerXNodeList,0)));
-                marker.setY(Integer.parseInt(readValue(markerYNodeList,0)));
-                marker.setZ(Integer.parseInt(readValue(markerZNodeList,0)));
-                markerVector.add(marker);
+        InputStream in = null;
+        try{
+            in = open();
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            TextureMeasuresCellCntrMarkerVector markerVector = null;
+            int x = 0, y = 0, z = 0;
+            while (reader.hasNext()){
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT){
+                    String name = reader.getLocalName();
+                    if (name.equals("Type")){
+                        markerVector = new TextureMeasuresCellCntrMarkerVector(readInt(reader));
+                        typeVector.add(markerVector);
+                    } else if (name.equals("MarkerX")){
+                        x = readInt(reader);
+                    } else if (name.equals("MarkerY")){
+                        y = readInt(reader);
+                    } else if (name.equals("MarkerZ")){
+                        z = readInt(reader);
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT
+                        && reader.getLocalName().equals("Marker")){
+                    markerVector.addMarker(x, y, z);
+                    if (verbose)
+                        debugReport("Marker = "+x+","+y+","+z);
+                }
             }
-            typeVector.add(markerVector);
+        } catch (XMLStreamException e) {
+            System.out.println(e.getMessage());
+            System.out.println(XMLFilePath + " is not well-formed.");
+        } catch (IOException e) {
+            System.out.println("IOException " + e.getMessage());
+        } finally {
+            close(in);
         }
         return typeVector;
     }
-    
-    private String readValue(NodeList nodeList, int index) throws NullPointerException{
-        Element element = getElement(nodeList, index);
-        debugReport("Element = "+element.getNodeName());
-        NodeList elementNodeList = getChildNodes(element);
-        String str = getValue(elementNodeList, 0);
-        return str;
-    }
-    private String[] readMarker(NodeList nodeList, int index) throws NullPointerException{
-        Element element = getElement(nodeList, index);
-        debugReport("Element = "+element.getNodeName());
-        NodeList elementNodeList = getChildNodes(element);
-        String str[] = {getValue(elementNodeList, 0),getValue(elementNodeList, 1),getValue(elementNodeList, 2)};
-        return str;
-    }
-    private String readSingleValue(Document doc, String elementName){
-        NodeList nodeList = getNodeListFromTag(doc,elementName);
-        Element element = getElement(nodeList, 0);
-        nodeList = getChildNodes(element);
-        String str = getValue(nodeList, 0);
-        return str;
-    }
-    private NodeList getNodeListFromTag(Document doc, String elementName){
-        NodeList nodeList = doc.getElementsByTagName(elementName);
-        return nodeList;
-    }
-    private NodeList getChildNodes(Element element){
-        NodeList nodeList = element.getChildNodes();
-        return nodeList;
+
+    private InputStream open() throws IOException{
+        return new BufferedInputStream(new FileInputStream(XMLFilePath), 1 << 16);
     }
-    private Element getElement(NodeList nodeList, int index){
-        Element element = (Element)nodeList.item(index);
-        return element;
+    private void close(InputStream in){
+        try{
+            if (in != null)
+                in.close();
+        } catch (IOException e) {
+            // Nothing else to do with the file
+        }
     }
-    private String getValue(NodeList nodeList, int index){
-        String str = ((Node)nodeList.item(index)).getNodeValue().trim();
-        return str;
+    private int readInt(XMLStreamReader reader) throws XMLStreamException{
+        return Integer.parseInt(reader.getElementText().trim());
     }
-    
-    
+
+
     public void debugReport(String report){
         if (verbose)
             System.out.println(report);
@@ -0,0 +1,132 @@
+//=====================================================
+//Name:           SDH_Texture
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Calculates the texture features from sum and difference
+//                histograms instead of co-occurrence matrices
+//                (M. Unser, Sum and difference histograms for texture
+//                classification, IEEE PAMI 8(1), 1986).
+//                For each offset only two histograms of 2L-1 bins are kept:
+//                s = a+b and d = a-b. Pairs are counted in both orders, as in
+//                GLCM_Texture, so the histograms describe the same symmetric
+//                matrix. Contrast, IDM and correlation are then exact; ASM
+//                and entropy are Unser's approximations:
+//                	ASM     = sum Ps^2 * sum Pd^2
+//                	entropy = -sum Ps log Ps - sum Pd log Pd
+//=====================================================
+
+public class SDH_Texture implements TextureAnalyzer {
+
+	public double[] run(GLCMWorkspace ws, byte []pixels, int width,
+			int height, int levels, GLCMOffset []offsets) {
+		int nOffsets = offsets.length;
+		ws.prepareHistograms(nOffsets, GLCM_Texture.FEATURE_COUNT, levels);
+		ws.setOffsets(offsets, width, height);
+
+		// ====================================================================================================
+		// This part computes the histograms. The difference a-b is shifted
+		// by levels-1 so that it is never negative
+		int bins = 2 * levels - 1;
+		int[] sumHist = ws.sumHist;
+		int[] diffHist = ws.diffHist;
+		for (int y = 0; y < height; y++) {
+			int offset = y * width;
+			for (int k = 0; k < nOffsets; k++) {
+				int x0 = ws.x0[k];
+				int x1 = ws.x1[k];
+				if (y < ws.y0[k] || y >= ws.y1[k] || x0 >= x1)
+					continue;
+				int deltak = ws.delta[k];
+				int base = k * bins;
+				int diffBase = base + levels - 1;
+				for (int i = offset + x0; i < offset + x1; i++) {
+					int a = 0xff & pixels[i];
+					int b = 0xff & pixels[i + deltak];
+					sumHist[base + a + b] += 2;
+					diffHist[diffBase + a - b]++;
+					diffHist[diffBase + b - a]++;
+				}
+				ws.pixelCounter[k] += 2 * (x1 - x0);
+			}
+		}
+
+		for (int k = 0; k < nOffsets; k++)
+			computeFeatures(ws, k, 5 * k);
+		return ws.features;
+	}
+
+	/** Only the five basic features are approximated by the histograms */
+	public int getFeatureCount() {
+		return GLCM_Texture.FEATURE_COUNT;
+	}
+
+	public String[] getFeatureNames() {
+		return GLCM_Texture.FEATURE_NAMES;
+	}
+
+	public double[] run(GLCMWorkspace ws, Object slicePixels, int sliceWidth,
+			int x0, int y0, int width, int height, GLCMQuantizer quantizer,
+			GLCMOffset []offsets) {
+		byte[] region = quantizer.map(slicePixels, sliceWidth, x0, y0, width,
+				height, ws.getRegion(width * height));
+		return run(ws, region, width, height, quantizer.getLevels(), offsets);
+	}
+
+	private void computeFeatures(GLCMWorkspace ws, int k, int idx) {
+		int levels = ws.levels;
+		int bins = 2 * levels - 1;
+		int base = k * bins;
+		long n = (long) ws.pixelCounter[k];
+		double N = n;
+		double[] cLogC = ws.getCLogC(n);
+		int cLogCSize = cLogC.length;
+		int[] sumHist = ws.sumHist;
+		int[] diffHist = ws.diffHist;
+
+		long sumS = 0, sumS2 = 0, sumCs2 = 0;
+		double sumCsLogCs = 0;
+		for (int s = 0; s < bins; s++) {
+			int c = sumHist[base + s];
+			if (c == 0)
+				continue;
+			sumS += (long) s * c;
+			sumS2 += (long) (s * s) * c;
+			sumCs2 += (long) c * c;
+			sumCsLogCs += c < cLogCSize ? cLogC[c] : c * Math.log(c);
+		}
+		long sumD2 = 0, sumCd2 = 0;
+		double sumIDM = 0, sumCdLogCd = 0;
+		for (int e = 0; e < bins; e++) {
+			int c = diffHist[base + e];
+			if (c == 0)
+				continue;
+			int d = e - (levels - 1);
+			if (d < 0)
+				d = -d;
+			sumD2 += (long) GLCM_Texture.CONTRAST_WEIGHT[d] * c;
+			sumIDM += GLCM_Texture.IDM_WEIGHT[d] * c;
+			sumCd2 += (long) c * c;
+			sumCdLogCd += c < cLogCSize ? cLogC[c] : c * Math.log(c);
+		}
+
+		double[] f = ws.features;
+		if (GLCM_Texture.doIcalculateASM == true)
+			f[idx] = (sumCs2 / (N * N)) * (sumCd2 / (N * N));
+		if (GLCM_Texture.doIcalculateContrast == true)
+			f[idx + 1] = sumD2 / N;
+		if (GLCM_Texture.doIcalculateCorrelation == true) {
+			// With mean m of a and b, (s-2m)^2 - d^2 = 4 (a-m)(b-m) and
+			// (s-2m)^2 + d^2 = 2 (a-m)^2 + 2 (b-m)^2, so both the covariance and
+			// the variance follow from the two histograms. n^2 var(s) is exact.
+			double varS = ((double) n * sumS2 - (double) sumS * sumS) / (N * N);
+			double meanD2 = sumD2 / N;
+			double cov = (varS - meanD2) / 4;
+			double var = (varS + meanD2) / 4;
+			f[idx + 2] = cov / (var * var);
+		}
+		if (GLCM_Texture.doIcalculateIDM == true)
+			f[idx + 3] = sumIDM / N;
+		if (GLCM_Texture.doIcalculateEntropy == true)
+			f[idx + 4] = 2 * Math.log(N) - (sumCsLogCs + sumCdLogCd) / N;
+	}
+}
@@ -0,0 +1,34 @@
+//=====================================================
+//Name:           TextureAnalyzer
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Engine that computes texture features of a region for
+//                several offsets (see GLCMOffset). The first five features
+//                are always ASM, contrast, correlation, IDM and entropy.
+//=====================================================
+
+public interface TextureAnalyzer {
+	/**
+	 * Analyzes a region whose pixels are already quantized to 0 ... levels-1.
+	 * The returned array belongs to the workspace: with n features per
+	 * offset (see getFeatureCount), the features of the k-th offset are
+	 * stored in f[n*k] ... f[n*k+n-1].
+	 */
+	public double[] run(GLCMWorkspace ws, byte []pixels, int width,
+			int height, int levels, GLCMOffset []offsets);
+
+	/**
+	 * Analyzes the region (x0,y0,width,height) of a byte[], short[] or
+	 * float[] slice whose rows are sliceWidth pixels long. The pixels are
+	 * quantized with the quantizer as the region is read.
+	 */
+	public double[] run(GLCMWorkspace ws, Object slicePixels, int sliceWidth,
+			int x0, int y0, int width, int height, GLCMQuantizer quantizer,
+			GLCMOffset []offsets);
+
+	/** Number of features computed for each offset */
+	public int getFeatureCount();
+
+	/** Short names of the features, as used in the column headings */
+	public String[] getFeatureNames();
+}
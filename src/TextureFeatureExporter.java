@@ -0,0 +1,171 @@
+//=====================================================
+//Name:           TextureFeatureExporter
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Writes rows of the feature store as text. The text format
+//                is the one of TextureMeasures.txt: the type label and the
+//                features separated by tabs. The CSV format has a header and
+//                also the image, slice, type and position of each marker.
+//                Each row is formatted into one reusable buffer and copied
+//                into a large byte buffer that is written to the file
+//                channel only when it is full.
+//
+//                java TextureFeatureExporter <store> <output> [-csv]
+//                     [-image <name>] [-type <type>]
+//=====================================================
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class TextureFeatureExporter {
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final String LINE_SEPARATOR = System
+			.getProperty("line.separator");
+
+	private FileChannel channel;
+	private boolean csv;
+	private boolean headerWritten;
+	private byte[] bytes = new byte[BUFFER_SIZE];
+	private int nBytes;
+	private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+	private StringBuilder row = new StringBuilder(1024);
+
+	/**
+	 * Writes to the file at filePath, appending to it if append is true, in
+	 * CSV or in the text format of TextureMeasures.txt
+	 */
+	public TextureFeatureExporter(String filePath, boolean append, boolean csv)
+			throws IOException {
+		channel = new FileOutputStream(filePath, append).getChannel();
+		this.csv = csv;
+		headerWritten = append;
+	}
+
+	public void write(TextureFeatureStore.Rows rows) throws IOException {
+		int nColumns = rows.columnNames.length;
+		if (csv && !headerWritten) {
+			row.setLength(0);
+			row.append("Image,Slice,Type,X,Y");
+			for (int j = 0; j < nColumns; j++)
+				row.append(',').append(quote(rows.columnNames[j]));
+			row.append(LINE_SEPARATOR);
+			write(row);
+			headerWritten = true;
+		}
+		String image = quote(rows.image);
+		for (int i = 0; i < rows.nRows; i++) {
+			row.setLength(0);
+			if (csv) {
+				row.append(image).append(',').append(rows.slice[i]).append(',')
+						.append(rows.type[i]).append(',').append(rows.x[i])
+						.append(',').append(rows.y[i]);
+				for (int j = 0; j < nColumns; j++)
+					row.append(',').append(rows.columns[j][i]);
+			} else {
+				row.append(TextureMeasuresMeasurer.getTypeLabel(rows.type[i]));
+				for (int j = 0; j < nColumns; j++)
+					row.append('\t').append(rows.columns[j][i]);
+			}
+			row.append(LINE_SEPARATOR);
+			write(row);
+		}
+	}
+
+	/** Writes the line that separates measurements in the text format */
+	public void writeSeparator() throws IOException {
+		row.setLength(0);
+		row.append(' ').append(LINE_SEPARATOR);
+		write(row);
+	}
+
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+
+	/**
+	 * Exports the rows of an image (all images if null) and of a type (all
+	 * types if negative)
+	 */
+	public static void export(TextureFeatureStore store, String image,
+			int type, String filePath, boolean csv) throws IOException {
+		TextureFeatureExporter exporter = new TextureFeatureExporter(filePath,
+				false, csv);
+		try {
+			TextureFeatureStore.Block[] blocks = store.findBlocks(image);
+			for (int b = 0; b < blocks.length; b++) {
+				exporter.write(store.read(blocks[b], type));
+				if (!csv)
+					exporter.writeSeparator();
+			}
+		} finally {
+			exporter.close();
+		}
+	}
+
+	private String quote(String s) {
+		if (!csv || (s.indexOf(',') < 0 && s.indexOf('"') < 0))
+			return s;
+		return "\"" + s.replaceAll("\"", "\"\"") + "\"";
+	}
+
+	private void write(StringBuilder text) throws IOException {
+		int length = text.length();
+		for (int i = 0; i < length; i++)
+			if (text.charAt(i) > 0x7f) {
+				// Image names may need more than one byte per char
+				byte[] utf8 = text.toString().getBytes("UTF-8");
+				flush();
+				channel.write(ByteBuffer.wrap(utf8));
+				return;
+			}
+		if (nBytes + length > BUFFER_SIZE)
+			flush();
+		for (int i = 0; i < length; i++)
+			bytes[nBytes++] = (byte) text.charAt(i);
+	}
+
+	/** Writes the buffered rows to the file */
+	public void flush() throws IOException {
+		buffer.limit(nBytes);
+		buffer.position(0);
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		nBytes = 0;
+	}
+
+	public static void main(String[] args) {
+		String image = null;
+		int type = -1;
+		boolean csv = false;
+		String[] files = new String[2];
+		int nFiles = 0;
+		try {
+			for (int i = 0; i < args.length; i++) {
+				if (args[i].equals("-csv"))
+					csv = true;
+				else if (args[i].equals("-image"))
+					image = args[++i];
+				else if (args[i].equals("-type"))
+					type = Integer.parseInt(args[++i]);
+				else
+					files[nFiles++] = args[i];
+			}
+		} catch (RuntimeException e) {
+			nFiles = 0;
+		}
+		if (nFiles != 2) {
+			System.err.println("Usage: TextureFeatureExporter <store> <output> [-csv] [-image <name>] [-type <type>]");
+			System.exit(2);
+		}
+		try {
+			export(new TextureFeatureStore(files[0]), image, type, files[1],
+					csv);
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+}
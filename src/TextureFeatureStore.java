@@ -0,0 +1,332 @@
+//=====================================================
+//Name:           TextureFeatureStore
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Append-only columnar store of measurements. Every
+//                measurement is appended as one block to the data file:
+//
+//                	"TFSB", image name, number of columns, column names,
+//                	number of rows n,
+//                	slice[n], type[n], x[n], y[n]      (int)
+//                	one column[n] per feature         (double)
+//
+//                The rows of a block are grouped by type, as measured. For
+//                every block the index file (the data file name + ".idx")
+//                holds the position of the block, its image, its columns
+//                and the first row and number of rows of each type, so a
+//                query reads the small index and maps only the columns of
+//                the blocks and types it needs. The block is written before
+//                its index entry, so an interrupted append leaves no entry
+//                pointing at incomplete data; if it leaves the last entry of
+//                the index incomplete, that entry is dropped (and cut off the
+//                index file) when the store is opened.
+//                All numbers are big-endian, as written by DataOutputStream.
+//=====================================================
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Vector;
+
+public class TextureFeatureStore {
+	private static final int BLOCK_MAGIC = 0x54465342; // "TFSB"
+	// slice, type, x and y
+	private static final int INT_COLUMNS = 4;
+
+	private File dataFile;
+	private File indexFile;
+	private Vector blocks = new Vector();
+
+	/** Block of rows appended by one measurement */
+	public static class Block {
+		private long position;
+		private String image;
+		private String[] columnNames;
+		private int nRows;
+		private int[] types;
+		private int[] firstRows;
+		private int[] rowCounts;
+
+		public String getImage() {
+			return image;
+		}
+
+		public String[] getColumnNames() {
+			return columnNames;
+		}
+
+		public int getRowCount() {
+			return nRows;
+		}
+
+		/** Types in the block, in the order of their rows */
+		public int[] getTypes() {
+			return types;
+		}
+
+		// Position of the first int column in the data file
+		private long columnsPosition() {
+			long p = position + 4 + utfLength(image) + 4 + 4;
+			for (int j = 0; j < columnNames.length; j++)
+				p += utfLength(columnNames[j]);
+			return p;
+		}
+	}
+
+	/**
+	 * Rows read from the store (or about to be written): the int columns and
+	 * one array per feature column
+	 */
+	public static class Rows {
+		public String image;
+		public String[] columnNames;
+		public int nRows;
+		public int[] slice;
+		public int[] type;
+		public int[] x;
+		public int[] y;
+		public double[][] columns;
+
+		public Rows(String image, String[] columnNames, int nRows) {
+			this.image = image;
+			this.columnNames = columnNames;
+			this.nRows = nRows;
+			slice = new int[nRows];
+			type = new int[nRows];
+			x = new int[nRows];
+			y = new int[nRows];
+			columns = new double[columnNames.length][nRows];
+		}
+	}
+
+	/** Opens the store at the given data file, which is created if needed */
+	public TextureFeatureStore(String path) throws IOException {
+		dataFile = new File(path);
+		indexFile = new File(path + ".idx");
+		if (indexFile.exists())
+			readIndex();
+	}
+
+	public int getBlockCount() {
+		return blocks.size();
+	}
+
+	public Block getBlock(int i) {
+		return (Block) blocks.get(i);
+	}
+
+	/** Blocks of an image, or all the blocks if image is null */
+	public Block[] findBlocks(String image) {
+		Vector found = new Vector();
+		for (int i = 0; i < blocks.size(); i++) {
+			Block b = (Block) blocks.get(i);
+			if (image == null || image.equals(b.image))
+				found.add(b);
+		}
+		return (Block[]) found.toArray(new Block[found.size()]);
+	}
+
+	/**
+	 * Appends the first rows.nRows rows. The rows of a type must be
+	 * contiguous.
+	 */
+	public synchronized void append(Rows rows) throws IOException {
+		Block b = new Block();
+		b.position = dataFile.length();
+		b.image = rows.image;
+		b.columnNames = rows.columnNames;
+		b.nRows = rows.nRows;
+		findTypeRuns(b, rows.type);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(dataFile, true), 1 << 16));
+		try {
+			out.writeInt(BLOCK_MAGIC);
+			out.writeUTF(b.image);
+			out.writeInt(b.columnNames.length);
+			for (int j = 0; j < b.columnNames.length; j++)
+				out.writeUTF(b.columnNames[j]);
+			out.writeInt(b.nRows);
+			writeInts(out, rows.slice, b.nRows);
+			writeInts(out, rows.type, b.nRows);
+			writeInts(out, rows.x, b.nRows);
+			writeInts(out, rows.y, b.nRows);
+			for (int j = 0; j < b.columnNames.length; j++)
+				for (int i = 0; i < b.nRows; i++)
+					out.writeDouble(rows.columns[j][i]);
+		} finally {
+			out.close();
+		}
+
+		out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(indexFile, true)));
+		try {
+			writeIndexEntry(out, b);
+		} finally {
+			out.close();
+		}
+		blocks.add(b);
+	}
+
+	/**
+	 * Reads the rows of a type of a block (all its rows if type is negative)
+	 * by mapping only the part of each column that holds them
+	 */
+	public Rows read(Block b, int type) throws IOException {
+		int first = 0;
+		int count = b.nRows;
+		if (type >= 0) {
+			count = 0;
+			for (int t = 0; t < b.types.length; t++)
+				if (b.types[t] == type) {
+					first = b.firstRows[t];
+					count = b.rowCounts[t];
+				}
+		}
+		Rows rows = new Rows(b.image, b.columnNames, count);
+		if (count == 0)
+			return rows;
+
+		RandomAccessFile file = new RandomAccessFile(dataFile, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			long p = b.columnsPosition();
+			long n = b.nRows;
+			int[][] ints = { rows.slice, rows.type, rows.x, rows.y };
+			for (int c = 0; c < INT_COLUMNS; c++) {
+				ByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY,
+						p + 4 * (c * n + first), 4L * count);
+				column.asIntBuffer().get(ints[c]);
+			}
+			p += 4 * INT_COLUMNS * n;
+			for (int j = 0; j < b.columnNames.length; j++) {
+				ByteBuffer column = channel.map(FileChannel.MapMode.READ_ONLY,
+						p + 8 * (j * n + first), 8L * count);
+				column.asDoubleBuffer().get(rows.columns[j]);
+			}
+		} finally {
+			file.close();
+		}
+		return rows;
+	}
+
+	private static void findTypeRuns(Block b, int[] type) {
+		int nRuns = 0;
+		for (int i = 0; i < b.nRows; i++)
+			if (i == 0 || type[i] != type[i - 1])
+				nRuns++;
+		b.types = new int[nRuns];
+		b.firstRows = new int[nRuns];
+		b.rowCounts = new int[nRuns];
+		int r = -1;
+		for (int i = 0; i < b.nRows; i++) {
+			if (i == 0 || type[i] != type[i - 1]) {
+				r++;
+				b.types[r] = type[i];
+				b.firstRows[r] = i;
+			}
+			b.rowCounts[r]++;
+		}
+		for (int s = 0; s < nRuns; s++)
+			for (int t = s + 1; t < nRuns; t++)
+				if (b.types[s] == b.types[t])
+					throw new IllegalArgumentException("The rows of type "
+							+ b.types[s] + " are not contiguous");
+	}
+
+	private static void writeInts(DataOutputStream out, int[] v, int n)
+			throws IOException {
+		for (int i = 0; i < n; i++)
+			out.writeInt(v[i]);
+	}
+
+	private static void writeIndexEntry(DataOutputStream out, Block b)
+			throws IOException {
+		out.writeLong(b.position);
+		out.writeUTF(b.image);
+		out.writeInt(b.columnNames.length);
+		for (int j = 0; j < b.columnNames.length; j++)
+			out.writeUTF(b.columnNames[j]);
+		out.writeInt(b.nRows);
+		out.writeInt(b.types.length);
+		for (int t = 0; t < b.types.length; t++) {
+			out.writeInt(b.types[t]);
+			out.writeInt(b.firstRows[t]);
+			out.writeInt(b.rowCounts[t]);
+		}
+	}
+
+	private void readIndex() throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile)));
+		// End of the last complete entry
+		long end = 0;
+		try {
+			while (true) {
+				Block b = new Block();
+				b.position = in.readLong();
+				b.image = in.readUTF();
+				b.columnNames = new String[in.readInt()];
+				for (int j = 0; j < b.columnNames.length; j++)
+					b.columnNames[j] = in.readUTF();
+				b.nRows = in.readInt();
+				int nRuns = in.readInt();
+				b.types = new int[nRuns];
+				b.firstRows = new int[nRuns];
+				b.rowCounts = new int[nRuns];
+				for (int t = 0; t < nRuns; t++) {
+					b.types[t] = in.readInt();
+					b.firstRows[t] = in.readInt();
+					b.rowCounts[t] = in.readInt();
+				}
+				blocks.add(b);
+				end += indexEntryLength(b);
+			}
+		} catch (EOFException e) {
+			// End of the index, or an entry cut by an interrupted append
+		} finally {
+			in.close();
+		}
+		if (end < indexFile.length()) {
+			RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+			try {
+				file.setLength(end);
+			} finally {
+				file.close();
+			}
+		}
+	}
+
+	// Bytes taken by the index entry of a block
+	private static long indexEntryLength(Block b) {
+		long length = 8 + utfLength(b.image) + 4 + 4 + 4 + 12L
+				* b.types.length;
+		for (int j = 0; j < b.columnNames.length; j++)
+			length += utfLength(b.columnNames[j]);
+		return length;
+	}
+
+	// Bytes taken by writeUTF: the length and the modified UTF-8 encoding
+	private static int utfLength(String s) {
+		int length = 2;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c >= 0x0001 && c <= 0x007f)
+				length += 1;
+			else if (c <= 0x07ff)
+				length += 2;
+			else
+				length += 3;
+		}
+		return length;
+	}
+}
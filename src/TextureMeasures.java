@@ -19,10 +19,13 @@
 import ij.IJ;
 import ij.ImagePlus;
 import ij.ImageStack;
+import ij.Prefs;
 import ij.WindowManager;
+import ij.gui.GenericDialog;
 import ij.gui.ImageWindow;
 import ij.gui.Overlay;
 import ij.gui.StackWindow;
+import ij.process.ColorProcessor;
 import ij.process.ImageProcessor;
 import ij.CompositeImage;
 import java.awt.Dimension;
@@ -40,6 +43,9 @@ import java.io.*;
 import java.util.ListIterator;
 import java.util.Vector;
 import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.swing.BorderFactory;
 import javax.swing.ButtonGroup;
 import javax.swing.JButton;
@@ -50,6 +56,7 @@ import javax.swing.JRadioButton;
 import javax.swing.JSeparator;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
+import javax.swing.Timer;
 import javax.swing.border.EtchedBorder;
 
 public class TextureMeasures extends JFrame implements
@@ -63,6 +70,14 @@ public class TextureMeasures extends JFrame implements
 	private static final String EXPORTMARKERS = "Save Markers";
 	private static final String LOADMARKERS = "Load Markers";
 	private static final String MEASURECELL = "Measure Cell";
+	private static final String OPTIONS = "Options";
+	private static final String TEXTUREMAP = "Texture Map";
+	// Milliseconds without counter changes before the window is laid out
+	private static final int LAYOUT_DELAY = 250;
+	// Milliseconds between two updates of the progress of a texture map
+	private static final int PROGRESS_INTERVAL = 250;
+	private static final String[] ENGINES = { "Co-occurrence matrices",
+			"Sum-difference histograms" };
 
 	private Vector typeVector;
 	private Vector dynRadioVector;
@@ -85,10 +100,26 @@ public class TextureMeasures extends JFrame implements
 	private JButton exportButton;
 	private JButton loadButton;
 	private JButton measureCellButton;
+	private JButton optionsButton;
+	private JButton textureMapButton;
 
 	private boolean keepOriginal = false;
 
+	private int grayLevels = 256;
+	private int grayRange = GLCMQuantizer.FULL_RANGE;
+	private double saturated = 0.35;
+	private int engine = 0;
+	private boolean extendedFeatures = false;
+	private int nThreads = Prefs.getThreads();
+	private String mapDirection = GLCMOffset.DIRECTION_NAMES[0];
+	private int mapStep = 1;
+
 	private TextureMeasuresCellCntrImageCanvas ic;
+	private Timer layoutTimer;
+	// Texture map computed in the background, and its result
+	private GLCM_TextureMap textureMap;
+	private Future mapResult;
+	private Timer mapTimer;
 
 	private ImagePlus img;
 	private ImagePlus counterImg;
@@ -328,6 +359,25 @@ public class TextureMeasures extends JFrame implements
 		gb.setConstraints(measureCellButton, gbc);
 		statButtonPanel.add(measureCellButton);
 
+		gbc = new GridBagConstraints();
+		gbc.anchor = GridBagConstraints.NORTHWEST;
+		gbc.fill = GridBagConstraints.BOTH;
+		gbc.gridx = 0;
+		gbc.gridwidth = GridBagConstraints.REMAINDER;
+		textureMapButton = makeButton(TEXTUREMAP, "Texture feature maps of the current slice");
+		textureMapButton.setEnabled(false);
+		gb.setConstraints(textureMapButton, gbc);
+		statButtonPanel.add(textureMapButton);
+
+		gbc = new GridBagConstraints();
+		gbc.anchor = GridBagConstraints.NORTHWEST;
+		gbc.fill = GridBagConstraints.BOTH;
+		gbc.gridx = 0;
+		gbc.gridwidth = GridBagConstraints.REMAINDER;
+		optionsButton = makeButton(OPTIONS, "Texture measurement options");
+		gb.setConstraints(optionsButton, gbc);
+		statButtonPanel.add(optionsButton);
+
 		gbc = new GridBagConstraints();
 		gbc.anchor = GridBagConstraints.NORTHWEST;
 		gbc.fill = GridBagConstraints.NONE;
@@ -364,6 +414,35 @@ public class TextureMeasures extends JFrame implements
 		validateLayout();
 	}
 
+	/**
+	 * Updates the counter of a marker vector after a click. The window is
+	 * laid out again only if the width of the count changes, and only once
+	 * the clicks stop.
+	 */
+	void updateCount(TextureMeasuresCellCntrMarkerVector markerVector) {
+		int index = typeVector.indexOf(markerVector);
+		if (index < 0 || index >= txtFieldVector.size())
+			return;
+		JTextField tArea = (JTextField) txtFieldVector.get(index);
+		String count = "" + markerVector.size();
+		int oldLength = tArea.getText().length();
+		tArea.setText(count);
+		if (count.length() != oldLength)
+			scheduleLayout();
+	}
+
+	private void scheduleLayout() {
+		if (layoutTimer == null) {
+			layoutTimer = new Timer(LAYOUT_DELAY, new ActionListener() {
+				public void actionPerformed(ActionEvent e) {
+					validateLayout();
+				}
+			});
+			layoutTimer.setRepeats(false);
+		}
+		layoutTimer.restart();
+	}
+
 	private JRadioButton makeDynRadioButton(int id) {
 		String label = "";
 		switch (id) {
@@ -398,25 +477,24 @@ public class TextureMeasures extends JFrame implements
 		if (img == null) {
 			IJ.noImage();
 		} else if (img.getStackSize() == 1) {
+			// The counter window shares the pixels of the image
 			ImageProcessor ip = img.getProcessor();
-			ip.resetRoi();
-			ip = ip.crop();
+			ip = TextureMeasuresStackView.wrap(ip.getPixels(), ip.getWidth(),
+					ip.getHeight(), ip.getColorModel());
 			counterImg = new ImagePlus("Counter Window - " + img.getTitle(), ip);
 			Overlay overlay = v139t ? img.getCanvas().getOverlay()
 					: null;
 			ic = new TextureMeasuresCellCntrImageCanvas(counterImg, typeVector, this,
 					overlay);
+			ic.setQuantization(grayLevels, grayRange, saturated);
+			ic.setTextureAnalyzer(createTextureAnalyzer());
+			ic.setThreads(nThreads);
 			new ImageWindow(counterImg, ic);
 		} else if (img.getStackSize() > 1) {
-			ImageStack stack = img.getStack();
-			int size = stack.getSize();
-			ImageStack counterStack = img.createEmptyStack();
-			for (int i = 1; i <= size; i++) {
-				ImageProcessor ip = stack.getProcessor(i);
-				ip.resetRoi();
-				ip = ip.crop();
-				counterStack.addSlice(stack.getSliceLabel(i), ip);
-			}
+			// The slices are read from the stack of the image when they are
+			// shown or measured; none is copied
+			ImageStack counterStack = new TextureMeasuresStackView(img
+					.getStack());
 			counterImg = new ImagePlus("Counter Window - " + img.getTitle(),
 					counterStack);
 			counterImg.setDimensions(img.getNChannels(), img.getNSlices(), img
@@ -431,6 +509,9 @@ public class TextureMeasures extends JFrame implements
 					: null;
 			ic = new TextureMeasuresCellCntrImageCanvas(counterImg, typeVector, this,
 					overlay);
+			ic.setQuantization(grayLevels, grayRange, saturated);
+			ic.setTextureAnalyzer(createTextureAnalyzer());
+			ic.setThreads(nThreads);
 			new StackWindow(counterImg, ic);
 		}
 		if (!keepOriginal) {
@@ -444,6 +525,7 @@ public class TextureMeasures extends JFrame implements
 		if (isJava14)
 			exportButton.setEnabled(true);
 		measureCellButton.setEnabled(true);
+		textureMapButton.setEnabled(true);
 	}
 
 	void validateLayout() {
@@ -496,6 +578,10 @@ public class TextureMeasures extends JFrame implements
 			validateLayout();
 		} else if (command.compareTo(MEASURECELL) == 0) {
 			measure();
+		} else if (command.compareTo(OPTIONS) == 0) {
+			showOptions();
+		} else if (command.compareTo(TEXTUREMAP) == 0) {
+			textureMap();
 		}
 		if (ic != null)
 			ic.repaint();
@@ -516,6 +602,130 @@ public class TextureMeasures extends JFrame implements
 		ic.measure();
 	}
 
+	/**
+	 * Shows the texture features of every pixel of the current slice, using
+	 * the probe size and quantization of the measurements. The maps are
+	 * computed in the background, after any measurement running; if they
+	 * are being computed they are canceled instead, as they are by Esc.
+	 */
+	private void textureMap() {
+		if (mapResult != null && !mapResult.isDone()) {
+			textureMap.cancel();
+			IJ.showStatus("Canceling the texture map...");
+			return;
+		}
+		GenericDialog gd = new GenericDialog("Texture Map");
+		gd.addChoice("Direction", GLCMOffset.DIRECTION_NAMES, mapDirection);
+		gd.addNumericField("Step", mapStep, 0);
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+		mapDirection = gd.getNextChoice();
+		mapStep = (int) gd.getNextNumber();
+		if (mapStep < 1) {
+			IJ.error("The step must be at least 1");
+			return;
+		}
+		final ImageProcessor slice = counterImg.getProcessor();
+		final int levels = grayLevels;
+		final int range = grayRange;
+		final double saturation = saturated;
+		final int radius = ic.getRadius();
+		final GLCMOffset offset = GLCMOffset.fromDirection(mapDirection,
+				mapStep);
+		final int threads = nThreads;
+		final String title = "Texture Map - " + img.getTitle();
+		final GLCM_TextureMap map = new GLCM_TextureMap();
+		textureMap = map;
+		IJ.resetEscape();
+		mapResult = TextureMeasuresCellCntrImageCanvas.getMeasureExecutor()
+				.submit(new Callable() {
+					public Object call() {
+						ImageProcessor ip = slice;
+						if (ip instanceof ColorProcessor)
+							ip = ip.convertToByte(true);
+						GLCMQuantizer quantizer = new GLCMQuantizer(ip, levels,
+								range, saturation);
+						ImageStack maps = map.run(ip, quantizer, radius,
+								offset, threads);
+						return maps == null ? null : new ImagePlus(title, maps);
+					}
+				});
+		mapTimer = new Timer(PROGRESS_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showMapProgress();
+			}
+		});
+		mapTimer.start();
+	}
+
+	private void showMapProgress() {
+		if (IJ.escapePressed() && !textureMap.isCanceled()) {
+			textureMap.cancel();
+			IJ.showStatus("Canceling the texture map...");
+		}
+		if (!mapResult.isDone()) {
+			if (!textureMap.isCanceled()) {
+				IJ.showProgress(textureMap.getProgress());
+				IJ.showStatus("Computing texture maps... (Esc to cancel)");
+			}
+			return;
+		}
+		mapTimer.stop();
+		IJ.showProgress(1.0);
+		ImagePlus maps;
+		try {
+			maps = (ImagePlus) mapResult.get();
+		} catch (InterruptedException e) {
+			return;
+		} catch (ExecutionException e) {
+			IJ.error("Cannot compute the texture maps: " + e.getCause());
+			return;
+		}
+		if (maps == null) {
+			IJ.showStatus("Texture map canceled");
+			return;
+		}
+		maps.show();
+		IJ.showStatus("");
+	}
+
+	private void showOptions() {
+		GenericDialog gd = new GenericDialog("Texture Measures Options");
+		gd.addChoice("Engine", ENGINES, ENGINES[engine]);
+		gd.addCheckbox("All 14 Haralick features (co-occurrence engine only)",
+				extendedFeatures);
+		gd.addChoice("Gray levels", GLCMQuantizer.LEVEL_NAMES, ""
+				+ grayLevels);
+		gd.addChoice("Gray range", GLCMQuantizer.RANGE_NAMES,
+				GLCMQuantizer.RANGE_NAMES[grayRange]);
+		gd.addNumericField("Saturated pixels (%)", saturated, 2);
+		gd.addNumericField("Threads", nThreads, 0);
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+		engine = gd.getNextChoiceIndex();
+		extendedFeatures = gd.getNextBoolean();
+		grayLevels = Integer.parseInt(gd.getNextChoice());
+		grayRange = gd.getNextChoiceIndex();
+		saturated = gd.getNextNumber();
+		nThreads = Math.max(1, (int) gd.getNextNumber());
+		if (ic != null) {
+			ic.setQuantization(grayLevels, grayRange, saturated);
+			ic.setTextureAnalyzer(createTextureAnalyzer());
+			ic.setThreads(nThreads);
+		}
+	}
+
+	private TextureAnalyzer createTextureAnalyzer() {
+		switch (engine) {
+		case 1:
+			return new SDH_Texture();
+		default:
+			return new GLCM_Texture(extendedFeatures);
+		}
+	}
+
 	public void reset() {
 		if (typeVector.size() < 1) {
 			return;
@@ -531,8 +741,12 @@ public class TextureMeasures extends JFrame implements
 
 	public void loadMarkers() {
 		String filePath = getFilePath(new JFrame(), "Select Marker File", OPEN);
-		ReadXML rxml = new ReadXML(filePath);
-		String storedfilename = rxml.readImgProperties(rxml.IMAGE_FILE_PATH);
+		MarkerReader rxml;
+		if (filePath.endsWith(MarkerReader.BINARY_EXTENSION))
+			rxml = new ReadBinary(filePath);
+		else
+			rxml = new ReadXML(filePath);
+		String storedfilename = rxml.readImgProperties(ReadXML.IMAGE_FILE_PATH);
 		System.out.println(storedfilename);
 		System.out.println(img.getTitle());
 		if (storedfilename.equals(img.getTitle())) {
@@ -540,7 +754,7 @@ public class TextureMeasures extends JFrame implements
 			typeVector = loadedvector;
 			ic.setTypeVector(typeVector);
 			int index = Integer.parseInt(rxml
-					.readImgProperties(rxml.CURRENT_TYPE));
+					.readImgProperties(ReadXML.CURRENT_TYPE));
 			currentMarkerVector = (TextureMeasuresCellCntrMarkerVector) typeVector.get(index);
 			ic.setCurrentMarkerVector(currentMarkerVector);
 
@@ -569,8 +783,15 @@ public class TextureMeasures extends JFrame implements
 	}
 
 	public void exportMarkers() {
-		String filePath = getFilePath(new JFrame(), "Save Marker File (.xml)",
-				SAVE);
+		String filePath = getFilePath(new JFrame(),
+				"Save Marker File (.xml or " + MarkerReader.BINARY_EXTENSION
+						+ ")", SAVE);
+		if (filePath.endsWith(MarkerReader.BINARY_EXTENSION)) {
+			WriteBinary wbin = new WriteBinary(filePath);
+			wbin.writeBinary(img.getTitle(), typeVector, typeVector
+					.indexOf(currentMarkerVector));
+			return;
+		}
 		if (!filePath.endsWith(".xml"))
 			filePath += ".xml";
 		WriteXML wxml = new WriteXML(filePath);
@@ -0,0 +1,269 @@
+//=====================================================
+//Name:           TextureMeasuresBatch
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Measures images and their marker files (CellCounter_*.xml
+//                or .cmb, as written by Save Markers) without the user interface, so
+//                that it can run on machines without a display. Images are
+//                measured concurrently by a bounded pool of jobs, and their
+//                rows are written in the order of the marker files, each one
+//                preceded by the name of the image.
+//
+//                java -Djava.awt.headless=true -cp ij.jar:TextureCell_.jar
+//                     TextureMeasuresBatch [options] <file or folder> ...
+//
+//                A folder stands for every marker file in it; an image
+//                stands for the CellCounter_<name>.xml next to it. The image
+//                of a marker file is the Image_Filename it stores, looked up
+//                in the folder of the marker file.
+//=====================================================
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.Prefs;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TextureMeasuresBatch {
+	private static final String USAGE = "Usage: TextureMeasuresBatch [options] <file or folder> ...\n"
+			+ "  -o <file>        output file (default: standard output)\n"
+			+ "  -radius <n>      probe radius (default 10)\n"
+			+ "  -levels <n>      gray levels: 8, 16, 32, 64 or 256 (default 256)\n"
+			+ "  -range <mode>    full, minmax or percentile (default full)\n"
+			+ "  -saturated <p>   saturated pixels in percent (default 0.35)\n"
+			+ "  -sdh             sum-difference histograms instead of co-occurrence matrices\n"
+			+ "  -extended        all 14 Haralick features\n"
+			+ "  -jobs <n>        images measured at the same time (default: number of threads)\n"
+			+ "  -threads <n>     threads per image (default 1)";
+
+	private TextureMeasuresMeasurer measurer;
+	private int nJobs;
+
+	/**
+	 * Measures with the settings of the measurer, nJobs images at the same
+	 * time. The measurer must not be changed while the batch runs.
+	 */
+	public TextureMeasuresBatch(TextureMeasuresMeasurer measurer, int nJobs) {
+		this.measurer = measurer;
+		this.nJobs = Math.max(1, nJobs);
+	}
+
+	/**
+	 * Marker files of a list of files and folders: a folder gives all its
+	 * CellCounter_*.xml and .cmb files, sorted by name; an image gives the
+	 * marker file Save Markers proposes for it; a marker file is taken as it
+	 * is
+	 */
+	public static File[] findMarkerFiles(String[] paths) {
+		Vector files = new Vector();
+		for (int i = 0; i < paths.length; i++) {
+			File f = new File(paths[i]);
+			if (f.isDirectory()) {
+				String[] names = f.list();
+				Arrays.sort(names);
+				for (int j = 0; j < names.length; j++)
+					if (names[j].startsWith("CellCounter_")
+							&& (names[j].endsWith(".xml") || names[j]
+									.endsWith(MarkerReader.BINARY_EXTENSION)))
+						files.add(new File(f, names[j]));
+			} else if (f.getName().endsWith(".xml")
+					|| f.getName().endsWith(MarkerReader.BINARY_EXTENSION))
+				files.add(f);
+			else {
+				String name = f.getName();
+				files.add(new File(f.getParentFile(), "CellCounter_"
+						+ name.substring(0, name.lastIndexOf(".") + 1) + "xml"));
+			}
+		}
+		return (File[]) files.toArray(new File[files.size()]);
+	}
+
+	/**
+	 * Measures the images of the marker files and writes the column headings
+	 * and one row per marker to out. Errors are reported on standard error
+	 * and the image is skipped. Returns the number of images measured.
+	 */
+	public int run(File[] markerFiles, PrintStream out) {
+		out.println("Image\t" + measurer.getColumnHeadings());
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(nJobs,
+				Math.max(1, markerFiles.length)));
+		int nMeasured = 0;
+		try {
+			Future[] futures = new Future[markerFiles.length];
+			for (int i = 0; i < markerFiles.length; i++) {
+				final File markerFile = markerFiles[i];
+				futures[i] = executor.submit(new Callable() {
+					public Object call() throws IOException {
+						return measure(markerFile);
+					}
+				});
+			}
+			for (int i = 0; i < markerFiles.length; i++) {
+				try {
+					out.print((String) futures[i].get());
+					nMeasured++;
+				} catch (ExecutionException e) {
+					System.err.println(markerFiles[i] + ": "
+							+ e.getCause().getMessage());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		out.flush();
+		return nMeasured;
+	}
+
+	/** Rows of the measurements of the image of a marker file */
+	public String measure(File markerFile) throws IOException {
+		if (!markerFile.isFile())
+			throw new IOException("Marker file not found");
+		String path = markerFile.getPath();
+		MarkerReader rxml;
+		if (path.endsWith(MarkerReader.BINARY_EXTENSION))
+			rxml = new ReadBinary(path);
+		else
+			rxml = new ReadXML(path);
+		String imageName = rxml.readImgProperties(ReadXML.IMAGE_FILE_PATH);
+		if (imageName == null || imageName.length() == 0)
+			throw new IOException("No image file name in " + markerFile);
+		File imageFile = new File(markerFile.getParentFile(), imageName);
+		ImagePlus img = IJ.openImage(imageFile.getPath());
+		if (img == null)
+			throw new IOException("Cannot open " + imageFile);
+		Vector typeVector = rxml.readMarkerData();
+		ImageStack stack = img.getStack();
+
+		// The markers of all the types are measured at once, so each slice is
+		// read and quantized only once
+		int count = 0;
+		for (int t = 0; t < typeVector.size(); t++)
+			count += ((TextureMeasuresCellCntrMarkerVector) typeVector.get(t))
+					.size();
+		int[] x = new int[count];
+		int[] y = new int[count];
+		int[] z = new int[count];
+		int[] first = new int[typeVector.size() + 1];
+		for (int t = 0; t < typeVector.size(); t++) {
+			TextureMeasuresCellCntrMarkerVector mv = (TextureMeasuresCellCntrMarkerVector) typeVector
+					.get(t);
+			for (int i = 0; i < mv.size(); i++) {
+				x[first[t] + i] = mv.getX(i);
+				y[first[t] + i] = mv.getY(i);
+				z[first[t] + i] = mv.getZ(i);
+			}
+			first[t + 1] = first[t] + mv.size();
+		}
+		double[] values = measurer.measure(stack, x, y, z, count);
+
+		int nValues = measurer.getValueCount();
+		StringBuffer rows = new StringBuffer();
+		for (int t = 0; t < typeVector.size(); t++) {
+			String typeLabel = TextureMeasuresMeasurer
+					.getTypeLabel(((TextureMeasuresCellCntrMarkerVector) typeVector
+							.get(t)).getType());
+			for (int i = first[t]; i < first[t + 1]; i++) {
+				if (!measurer.isMeasurable(stack, x[i], y[i], z[i]))
+					continue;
+				rows.append(imageName).append('\t').append(typeLabel);
+				for (int j = 0; j < nValues; j++)
+					rows.append('\t').append(values[i * nValues + j]);
+				rows.append('\n');
+			}
+		}
+		img.flush();
+		return rows.toString();
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		TextureMeasuresMeasurer measurer = new TextureMeasuresMeasurer();
+		measurer.setThreads(1);
+		int nJobs = Prefs.getThreads();
+		String output = null;
+		int grayLevels = 256;
+		int grayRange = GLCMQuantizer.FULL_RANGE;
+		double saturated = 0.35;
+		boolean sdh = false;
+		boolean extended = false;
+		Vector paths = new Vector();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				String arg = args[i];
+				if (arg.equals("-o"))
+					output = args[++i];
+				else if (arg.equals("-radius"))
+					measurer.setRadius(Integer.parseInt(args[++i]));
+				else if (arg.equals("-levels"))
+					grayLevels = Integer.parseInt(args[++i]);
+				else if (arg.equals("-range")) {
+					String mode = args[++i];
+					if (mode.equals("full"))
+						grayRange = GLCMQuantizer.FULL_RANGE;
+					else if (mode.equals("minmax"))
+						grayRange = GLCMQuantizer.MIN_MAX;
+					else if (mode.equals("percentile"))
+						grayRange = GLCMQuantizer.PERCENTILE;
+					else
+						throw new IllegalArgumentException("Unknown range: "
+								+ mode);
+				} else if (arg.equals("-saturated"))
+					saturated = Double.parseDouble(args[++i]);
+				else if (arg.equals("-sdh"))
+					sdh = true;
+				else if (arg.equals("-extended"))
+					extended = true;
+				else if (arg.equals("-jobs"))
+					nJobs = Integer.parseInt(args[++i]);
+				else if (arg.equals("-threads"))
+					measurer.setThreads(Integer.parseInt(args[++i]));
+				else if (arg.startsWith("-"))
+					throw new IllegalArgumentException("Unknown option: " + arg);
+				else
+					paths.add(arg);
+			}
+		} catch (ArrayIndexOutOfBoundsException e) {
+			System.err.println("Missing value of " + args[args.length - 1]);
+			System.err.println(USAGE);
+			System.exit(2);
+		} catch (RuntimeException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		if (paths.size() == 0) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		measurer.setQuantization(grayLevels, grayRange, saturated);
+		measurer.setTextureAnalyzer(sdh ? (TextureAnalyzer) new SDH_Texture()
+				: new GLCM_Texture(extended));
+
+		File[] markerFiles = findMarkerFiles((String[]) paths
+				.toArray(new String[paths.size()]));
+		try {
+			PrintStream out = output == null ? System.out : new PrintStream(
+					new FileOutputStream(output));
+			int nMeasured = new TextureMeasuresBatch(measurer, nJobs).run(
+					markerFiles, out);
+			if (out != System.out)
+				out.close();
+			System.exit(nMeasured == markerFiles.length ? 0 : 1);
+		} catch (IOException e) {
+			System.err.println("Cannot write " + output + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -24,14 +24,13 @@
 
 import ij.IJ;
 import ij.ImagePlus;
+import ij.ImageStack;
 import ij.gui.ImageCanvas;
 import ij.gui.Overlay;
 import ij.gui.Roi;
 import ij.gui.Toolbar;
-import ij.measure.Calibration;
+import ij.measure.ResultsTable;
 import ij.plugin.filter.RGBStackSplitter;
-import ij.process.ImageProcessor;
-import java.awt.BasicStroke;
 import java.awt.Cursor;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
@@ -39,9 +38,15 @@ import java.awt.Image;
 import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.util.ListIterator;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import javax.swing.Timer;
 import java.io.*;
 
 /**
@@ -58,6 +63,15 @@ public class TextureMeasuresCellCntrImageCanvas extends ImageCanvas {
 	private boolean showAll = false;
 	private Font font = new Font("SansSerif", Font.PLAIN, 10);
 	private int radius = 10;
+	private TextureMeasuresMeasurer measurer = new TextureMeasuresMeasurer();
+	private TextureMeasuresMarkerOverlay overlay = new TextureMeasuresMarkerOverlay(font);
+	// Milliseconds between two updates of the progress of a measurement
+	private static final int PROGRESS_INTERVAL = 250;
+	// Thread that runs the measurements, one after the other
+	private static ExecutorService measureExecutor;
+	private TextureMeasuresMeasurement measurement;
+	private long measureStart;
+	private Timer progressTimer;
 
 	/** Creates a new instance of CellCntrImageCanvas */
 	public TextureMeasuresCellCntrImageCanvas(ImagePlus img, Vector typeVector, TextureMeasures cc, Overlay overlay) {
@@ -73,6 +87,10 @@ public class TextureMeasuresCellCntrImageCanvas extends ImageCanvas {
 		radius++;
 	}
 
+	public int getRadius() {
+		return radius;
+	}
+
 	public void smallerRadius() {
 		if (radius > 2)
 			radius--;
@@ -92,16 +110,28 @@ public class TextureMeasuresCellCntrImageCanvas extends ImageCanvas {
 
 		int x = super.offScreenX(e.getX());
 		int y = super.offScreenY(e.getY());
+		int z = img.getCurrentSlice();
 		if (!delmode) {
-			TextureMeasuresCellCntrMarker m = new TextureMeasuresCellCntrMarker(x, y, img.getCurrentSlice());
-			currentMarkerVector.addMarker(m);
+			currentMarkerVector.addMarker(x, y, z);
 		} else {
 			TextureMeasuresCellCntrMarker m = currentMarkerVector.getMarkerFromPosition(
-					new Point(x, y), img.getCurrentSlice());
+					new Point(x, y), z);
+			if (m == null)
+				return;
 			currentMarkerVector.remove(m);
+			x = m.getX();
+			y = m.getY();
 		}
-		repaint();
-		cc.populateTxtFields();
+		repaint(overlay.update(typeVector, currentMarkerVector, x, y, z));
+		cc.updateCount(currentMarkerVector);
+	}
+
+	// Repaints the part of the canvas that shows the source rectangle r
+	private void repaint(Rectangle r) {
+		int x = screenX(r.x) - 1;
+		int y = screenY(r.y) - 1;
+		repaint(x, y, (int) Math.ceil(r.width * magnification) + 3, (int) Math
+				.ceil(r.height * magnification) + 3);
 	}
 
 	public void mouseReleased(MouseEvent e) {
@@ -138,8 +168,6 @@ public class TextureMeasuresCellCntrImageCanvas extends ImageCanvas {
 		super.paint(g);
 		srcRect = getSrcRect();
 		Roi roi = img.getRoi();
-		double xM = 0;
-		double yM = 0;
 
 		/*
 		 * double magnification = super.getMagnification();
@@ -153,128 +181,121 @@ public class TextureMeasuresCellCntrImageCanvas extends ImageCanvas {
 		 * IJ.outOfMemory("Paint "+e.getMessage()); }
 		 */
 
-		Graphics2D g2 = (Graphics2D) g;
-		g2.setStroke(new BasicStroke(1f));
-		g2.setFont(font);
-
-		ListIterator it = typeVector.listIterator();
-		while (it.hasNext()) {
-			TextureMeasuresCellCntrMarkerVector mv = (TextureMeasuresCellCntrMarkerVector) it.next();
-			int typeID = mv.getType();
-			g2.setColor(mv.getColor());
-			ListIterator mit = mv.listIterator();
-			while (mit.hasNext()) {
-				TextureMeasuresCellCntrMarker m = (TextureMeasuresCellCntrMarker) mit.next();
-				boolean sameSlice = m.getZ() == img.getCurrentSlice();
-				if (sameSlice || showAll) {
-					xM = ((m.getX() - srcRect.x) * magnification);
-					yM = ((m.getY() - srcRect.y) * magnification);
-					g2.drawRect((int) (xM - radius * magnification),
-							(int) (yM - radius * magnification),
-							(int) (2 * radius * magnification),
-							(int) (2 * radius * magnification));
-					if (showNumbers)
-						g2.drawString(Integer.toString(typeID), (int) xM + 3,
-								(int) yM - 3);
-				}
-			}
-		}
+		overlay.paint((Graphics2D) g, typeVector, srcRect, magnification, img
+				.getCurrentSlice(), radius, showNumbers, showAll);
 	}
 
 	public void removeLastMarker() {
+		int last = currentMarkerVector.size() - 1;
+		if (last < 0)
+			return;
+		int x = currentMarkerVector.getX(last);
+		int y = currentMarkerVector.getY(last);
+		int z = currentMarkerVector.getZ(last);
 		currentMarkerVector.removeLastMarker();
+		overlay.update(typeVector, currentMarkerVector, x, y, z);
 		repaint();
 		cc.populateTxtFields();
 	}
 
+	/**
+	 * Measures the markers in the background, showing the progress in the
+	 * status bar; the rows appear in the results as they are measured. If a
+	 * measurement is running it is canceled instead, as it is by Esc.
+	 */
 	public void measure() {
+		if (isMeasuring()) {
+			measurement.cancel();
+			IJ.showStatus("Canceling the measurement...");
+			return;
+		}
+		// Produce raw data
+		measurer.setRadius(radius);
+		ImageStack stack = img.getStack();
+		TextureMeasuresResults results;
 		try {
-			// Produce raw data
-			IJ.setColumnHeadings("Type\t ASM0_1\t Ct0_1\t Corr0_1\t IDM0_1\t Ent0_1\t ASM0_2\t Ct0_2\t Corr0_2\t IDM0_2\t Ent0_2\t ASM90_1\t Ct90_1\t Corr90_1\t IDM90_1\t Ent90_1\t ASM90_2\t Ct90_2\t Corr90_2\t IDM90_2\t Ent90_2\t ASM180_1\t Ct180_1\t Corr180_1\t IDM180_1\t Ent180_1\t ASM180_2\t Ct180_2\t Corr180_2\t IDM180_2\t Ent180_2\t ASM270_1\t Ct270_1\t Corr270_1\t IDM270_1\t Ent270_1\t ASM270_2\t Ct270_2\t Corr270_2\t IDM270_2\t Ent270_2");
-			ImageProcessor ip = img.getProcessor();
-			Calibration cal = img.getCalibration();
-			int W = ip.getWidth();
-			int H = ip.getHeight();
-			int radius2 = radius * radius;
-
-			FileOutputStream rawData = new FileOutputStream(
-					"TextureMeasures.txt", (new File("TextureMeasures.txt"))
-							.exists());
-			PrintStream pRawData = new PrintStream(rawData);
-			ListIterator it = typeVector.listIterator();
-			GLCM_Texture textureAnalyzer = new GLCM_Texture();
-			while (it.hasNext()) {
-				TextureMeasuresCellCntrMarkerVector mv = (TextureMeasuresCellCntrMarkerVector) it.next();
-				int typeID = mv.getType();
-				String typeLabel = "";
-				switch (typeID) {
-				case 1:
-					typeLabel = "Bg ";
-					break;
-				case 2:
-					typeLabel = "Fg ";
-					break;
-				}
-				ListIterator mit = mv.listIterator();
-				int dimRegion = 2 * radius + 1;
-				while (mit.hasNext()) {
-					TextureMeasuresCellCntrMarker m = (TextureMeasuresCellCntrMarker) mit.next();
-					int xM = m.getX();
-					int yM = m.getY();
-					byte[] region = new byte[dimRegion * dimRegion];
-					double[] f = new double[40];
-					double[] ff = new double[5];
-					int idx = 0;
-					textureAnalyzer.run(region, dimRegion, dimRegion,
-							"0 degrees", 1, ff);
-					for (int i = 0; i < 5; i++)
-						f[idx++] = ff[i];
-					textureAnalyzer.run(region, dimRegion, dimRegion,
-							"0 degrees", 3, ff);
-					for (int i = 0; i < 5; i++)
-						f[idx++] = ff[i];
-					textureAnalyzer.run(region, dimRegion, dimRegion,
-							"90 degrees", 1, ff);
-					for (int i = 0; i < 5; i++)
-						f[idx++] = ff[i];
-					textureAnalyzer.run(region, dimRegion, dimRegion,
-							"90 degrees", 3, ff);
-					for (int i = 0; i < 5; i++)
-						f[idx++] = ff[i];
-					textureAnalyzer.run(region, dimRegion, dimRegion,
-							"180 degrees", 1, ff);
-					for (int i = 0; i < 5; i++)
-						f[idx++] = ff[i];
-					textureAnalyzer.run(region, dimRegion, dimRegion,
-							"180 degrees", 3, ff);
-					for (int i = 0; i < 5; i++)
-						f[idx++] = ff[i];
-					textureAnalyzer.run(region, dimRegion, dimRegion,
-							"270 degrees", 1, ff);
-					for (int i = 0; i < 5; i++)
-						f[idx++] = ff[i];
-					textureAnalyzer.run(region, dimRegion, dimRegion,
-							"270 degrees", 3, ff);
-					for (int i = 0; i < 5; i++)
-						f[idx++] = ff[i];
-
-					// m.setValue(value);
-					String output = typeLabel;
-					for (int i = 0; i < 40; i++)
-						output += "\t" + f[i];
-					IJ.write(output);
-					pRawData.println(output);
-				}
+			results = new TextureMeasuresResults(new TextureFeatureStore(
+					"TextureMeasures.tfs"), "TextureMeasures.txt",
+					new ResultsTable(), img.getTitle(), measurer
+							.getColumnHeadings());
+		} catch (IOException e) {
+			IJ.error("Cannot write the measurements: " + e.getMessage());
+			return;
+		}
+		measurement = new TextureMeasuresMeasurement(
+				new TextureMeasuresMeasurer(measurer), stack, typeVector,
+				results);
+		IJ.resetEscape();
+		measureStart = System.currentTimeMillis();
+		getMeasureExecutor().execute(measurement);
+		progressTimer = new Timer(PROGRESS_INTERVAL, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showProgress();
 			}
-			pRawData.println(" ");
-			rawData.close();
+		});
+		progressTimer.start();
+	}
 
-		} catch (FileNotFoundException e) {
-			IJ.write("Cannot open raw data file for output");
+	/** True while a measurement runs in the background */
+	public boolean isMeasuring() {
+		return measurement != null && !measurement.isDone();
+	}
+
+	private void showProgress() {
+		if (IJ.escapePressed() && !measurement.isCanceled()) {
+			measurement.cancel();
+			IJ.showStatus("Canceling the measurement...");
+		}
+		double seconds = (System.currentTimeMillis() - measureStart) / 1000.0;
+		int total = measurement.getMarkerCount();
+		if (measurement.isDone()) {
+			progressTimer.stop();
+			IJ.showProgress(1.0);
+			if (measurement.getError() != null)
+				IJ.error("Cannot write the measurements: "
+						+ measurement.getError().getMessage());
+			else if (measurement.isCanceled())
+				IJ.showStatus("Measurement canceled: "
+						+ measurement.getRowCount() + " rows written");
+			else
+				IJ.showStatus(total + " markers measured in "
+						+ IJ.d2s(seconds, 1) + " s");
 			return;
-		} catch (IOException e) {
-			// Do nothing
 		}
+		if (measurement.isCanceled())
+			return;
+		int measured = measurement.getMeasuredCount();
+		IJ.showProgress(measured, total);
+		String status = "Measuring " + measured + "/" + total + " markers";
+		if (measured > 0 && seconds > 0) {
+			double rate = measured / seconds;
+			long eta = Math.round((total - measured) / rate);
+			status += ", " + Math.round(rate) + " markers/s, ETA "
+					+ (eta / 60) + ":" + (eta % 60 < 10 ? "0" : "") + eta % 60;
+		}
+		IJ.showStatus(status + " (Esc to cancel)");
+	}
+
+	/**
+	 * Single thread on which the measurements and texture maps run, one
+	 * after the other
+	 */
+	static synchronized ExecutorService getMeasureExecutor() {
+		if (measureExecutor == null)
+			measureExecutor = Executors
+					.newSingleThreadExecutor(new ThreadFactory() {
+						public Thread newThread(Runnable r) {
+							Thread thread = new Thread(r, "Texture Measures");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		return measureExecutor;
+	}
+
+	/** Column headings of the measurements */
+	public String getColumnHeadings() {
+		return measurer.getColumnHeadings();
 	}
 
 	public Vector getTypeVector() {
@@ -313,4 +334,17 @@ public class TextureMeasuresCellCntrImageCanvas extends ImageCanvas {
 		this.showAll = showAll;
 	}
 
+	public void setTextureAnalyzer(TextureAnalyzer textureAnalyzer) {
+		measurer.setTextureAnalyzer(textureAnalyzer);
+	}
+
+	public void setQuantization(int grayLevels, int grayRange, double saturated) {
+		measurer.setQuantization(grayLevels, grayRange, saturated);
+	}
+
+	/** Number of threads that measure the markers */
+	public void setThreads(int nThreads) {
+		measurer.setThreads(nThreads);
+	}
+
 }
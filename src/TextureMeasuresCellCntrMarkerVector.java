@@ -23,39 +23,140 @@
  */
 import java.awt.Color;
 import java.awt.Point;
-import java.awt.geom.Point2D;
-import java.util.ListIterator;
-import java.util.Vector;
 
 /**
+ * Markers of one type. The coordinates are kept in growable int arrays, one
+ * per axis, and are read through getX(n), getY(n) and getZ(n); the methods
+ * that take or return TextureMeasuresCellCntrMarker objects are adapters that
+ * copy the coordinates.
  *
  * @author Kurt De Vos
  */
-public class TextureMeasuresCellCntrMarkerVector extends Vector{
+public class TextureMeasuresCellCntrMarkerVector {
     private int type;
     private Color color;
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int[] z = new int[16];
+    private int size;
+    // Number of changes, to tell cached drawings of the markers are stale
+    private int modCount;
+    // Spatial index of the markers, built by the first query
+    private TextureMeasuresMarkerIndex index;
     /** Creates a new instance of MarkerVector */
     public TextureMeasuresCellCntrMarkerVector(int type) {
-        super();
         this.type=type;
         color = createColor(type);
     }
     public void addMarker(TextureMeasuresCellCntrMarker marker){
-        add(marker);
+        addMarker(marker.getX(), marker.getY(), marker.getZ());
+    }
+    public void addMarker(int x, int y, int z){
+        if (size == this.x.length){
+            ensureCapacity(2*size);
+        }
+        this.x[size] = x;
+        this.y[size] = y;
+        this.z[size] = z;
+        size++;
+        modCount++;
+        if (index != null){
+            index.add(x, y, z);
+        }
     }
     
     public TextureMeasuresCellCntrMarker getMarker(int n){
-        return (TextureMeasuresCellCntrMarker)get(n);
+        checkIndex(n);
+        return new TextureMeasuresCellCntrMarker(x[n], y[n], z[n]);
+    }
+    public int getX(int n){
+        checkIndex(n);
+        return x[n];
     }
+    public int getY(int n){
+        checkIndex(n);
+        return y[n];
+    }
+    public int getZ(int n){
+        checkIndex(n);
+        return z[n];
+    }
+    /** Index of the first marker at the position of marker, or -1 */
     public int getVectorIndex(TextureMeasuresCellCntrMarker marker){
-        return indexOf(marker);
+        return indexOf(marker.getX(), marker.getY(), marker.getZ());
+    }
+    public int indexOf(int x, int y, int z){
+        for (int i=0; i<size; i++){
+            if (this.x[i]==x && this.y[i]==y && this.z[i]==z){
+                return i;
+            }
+        }
+        return -1;
     }
     
     public void removeMarker(int n){
-        remove(n);
+        checkIndex(n);
+        if (index != null){
+            index.remove(x[n], y[n], z[n]);
+        }
+        int tail = size-n-1;
+        System.arraycopy(x, n+1, x, n, tail);
+        System.arraycopy(y, n+1, y, n, tail);
+        System.arraycopy(z, n+1, z, n, tail);
+        size--;
+        modCount++;
     }
     public void removeLastMarker(){
-        super.removeElementAt(size()-1);
+        removeMarker(size-1);
+    }
+    /** Removes the first marker at the position of marker */
+    public boolean remove(TextureMeasuresCellCntrMarker marker){
+        int n = getVectorIndex(marker);
+        if (n < 0){
+            return false;
+        }
+        removeMarker(n);
+        return true;
+    }
+    
+    public int size(){
+        return size;
+    }
+    /** Number of times the markers have been changed */
+    public int getModCount(){
+        return modCount;
+    }
+    public boolean isEmpty(){
+        return size == 0;
+    }
+    public void clear(){
+        size = 0;
+        modCount++;
+        index = null;
+    }
+    public void ensureCapacity(int capacity){
+        if (capacity > x.length){
+            x = grow(x, capacity);
+            y = grow(y, capacity);
+            z = grow(z, capacity);
+        }
+    }
+    private int[] grow(int[] a, int capacity){
+        int[] b = new int[capacity];
+        System.arraycopy(a, 0, b, 0, size);
+        return b;
+    }
+    private void checkIndex(int n){
+        if (n < 0 || n >= size){
+            throw new ArrayIndexOutOfBoundsException(n);
+        }
+    }
+    
+    /** Copies the coordinates of the markers into x, y and z */
+    public void getCoordinates(int[] x, int[] y, int[] z){
+        System.arraycopy(this.x, 0, x, 0, size);
+        System.arraycopy(this.y, 0, y, 0, size);
+        System.arraycopy(this.z, 0, z, 0, size);
     }
     
      private Color createColor(int typeID){
@@ -92,33 +193,32 @@ public class TextureMeasuresCellCntrMarkerVector extends Vector{
         }
     }
     
-    private boolean isCloser(TextureMeasuresCellCntrMarker m1,TextureMeasuresCellCntrMarker m2, Point p){
-        Point2D p1 = new Point2D.Double(m1.getX(), m1.getY());
-        Point2D p2 = new Point2D.Double(m1.getX(), m2.getY());
-        return (Math.abs(p1.distance(p)) < Math.abs(p2.distance(p)));
-    }
-
+    /** Marker of the slice nearest to p, or null if the slice has none */
     public TextureMeasuresCellCntrMarker getMarkerFromPosition(Point p, int sliceIndex){
-        Vector v = new Vector();
-        ListIterator it = this.listIterator();
-        while(it.hasNext()){
-        	TextureMeasuresCellCntrMarker m = (TextureMeasuresCellCntrMarker)it.next();
-            if (m.getZ()==sliceIndex){
-                v.add(m);
-            }
+        int[] xy = new int[2];
+        if (!getIndex().getNearest(p.x, p.y, sliceIndex, xy)){
+            return null;
         }
-        TextureMeasuresCellCntrMarker currentsmallest = (TextureMeasuresCellCntrMarker)v.get(0);
-        for (int i=1; i<v.size(); i++){
-        	TextureMeasuresCellCntrMarker m2 = (TextureMeasuresCellCntrMarker)v.get(i);
-            Point p1 = new Point(currentsmallest.getX(),currentsmallest.getY());
-            Point p2 = new Point(m2.getX(),m2.getY());
-            boolean closer = Math.abs(p1.distance(p)) > Math.abs(p2.distance(p));
-            if (closer){
-                currentsmallest=m2;
+        return new TextureMeasuresCellCntrMarker(xy[0], xy[1], sliceIndex);
+    }
+    
+    /**
+     * Appends to dest the markers of the slice (of every slice if sliceIndex
+     * is 0) that may lie inside the rectangle (x0,y0)-(x1,y1)
+     */
+    public void getMarkers(int sliceIndex, int x0, int y0, int x1, int y1,
+            TextureMeasuresCellCntrMarkerVector dest){
+        getIndex().getMarkers(sliceIndex, x0, y0, x1, y1, dest);
+    }
+    
+    private TextureMeasuresMarkerIndex getIndex(){
+        if (index == null){
+            index = new TextureMeasuresMarkerIndex();
+            for (int i=0; i<size; i++){
+                index.add(x[i], y[i], z[i]);
             }
         }
-                
-        return currentsmallest;
+        return index;
     }
     
     public int getType() {
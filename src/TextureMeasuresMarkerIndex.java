@@ -0,0 +1,206 @@
+//=====================================================
+//Name:           TextureMeasuresMarkerIndex
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Spatial index of the markers of a marker vector. The
+//                positions of the markers of each slice are bucketed in a
+//                uniform grid of CELL_SIZE x CELL_SIZE pixel cells, kept in
+//                a hash table, so that finding the marker nearest to a
+//                click and finding the markers inside the visible rectangle
+//                only visit the cells around the click or inside the
+//                rectangle, however many markers there are. Each cell holds
+//                the x and y of its markers in one int array.
+//=====================================================
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+public class TextureMeasuresMarkerIndex {
+	static final int CELL_SIZE = 32;
+
+	// Integer slice -> Cells
+	private HashMap slices = new HashMap();
+
+	/** Grid of one slice */
+	private static class Cells {
+		int z;
+		// Long cell key -> Bucket
+		HashMap cells = new HashMap();
+		// Range of the cells that have ever held a marker
+		int minCx = Integer.MAX_VALUE, maxCx = Integer.MIN_VALUE;
+		int minCy = Integer.MAX_VALUE, maxCy = Integer.MIN_VALUE;
+
+		Cells(int z) {
+			this.z = z;
+		}
+
+		Bucket get(int cx, int cy) {
+			return (Bucket) cells.get(Long.valueOf(key(cx, cy)));
+		}
+	}
+
+	/** Markers of one cell: x0, y0, x1, y1, ... */
+	private static class Bucket {
+		int[] xy = new int[8];
+		int n;
+	}
+
+	private static long key(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xffffffffL);
+	}
+
+	// Cell of a coordinate, rounding down for negative coordinates too
+	private static int cell(int v) {
+		return v >= 0 ? v / CELL_SIZE : (v + 1) / CELL_SIZE - 1;
+	}
+
+	public void add(int x, int y, int z) {
+		Integer slice = Integer.valueOf(z);
+		Cells c = (Cells) slices.get(slice);
+		if (c == null) {
+			c = new Cells(z);
+			slices.put(slice, c);
+		}
+		int cx = cell(x);
+		int cy = cell(y);
+		Long k = Long.valueOf(key(cx, cy));
+		Bucket b = (Bucket) c.cells.get(k);
+		if (b == null) {
+			b = new Bucket();
+			c.cells.put(k, b);
+		}
+		if (2 * b.n == b.xy.length) {
+			int[] xy = new int[2 * b.xy.length];
+			System.arraycopy(b.xy, 0, xy, 0, 2 * b.n);
+			b.xy = xy;
+		}
+		b.xy[2 * b.n] = x;
+		b.xy[2 * b.n + 1] = y;
+		b.n++;
+		c.minCx = Math.min(c.minCx, cx);
+		c.maxCx = Math.max(c.maxCx, cx);
+		c.minCy = Math.min(c.minCy, cy);
+		c.maxCy = Math.max(c.maxCy, cy);
+	}
+
+	/** Removes one marker at (x,y,z), if there is any */
+	public void remove(int x, int y, int z) {
+		Cells c = (Cells) slices.get(Integer.valueOf(z));
+		if (c == null)
+			return;
+		Long k = Long.valueOf(key(cell(x), cell(y)));
+		Bucket b = (Bucket) c.cells.get(k);
+		if (b == null)
+			return;
+		for (int i = 0; i < b.n; i++)
+			if (b.xy[2 * i] == x && b.xy[2 * i + 1] == y) {
+				b.n--;
+				b.xy[2 * i] = b.xy[2 * b.n];
+				b.xy[2 * i + 1] = b.xy[2 * b.n + 1];
+				break;
+			}
+		if (b.n == 0)
+			c.cells.remove(k);
+	}
+
+	public void clear() {
+		slices.clear();
+	}
+
+	/**
+	 * Finds the marker of slice z nearest to (x,y) and stores its x and y in
+	 * xy. Returns false if the slice has no marker.
+	 */
+	public boolean getNearest(int x, int y, int z, int[] xy) {
+		Cells c = (Cells) slices.get(Integer.valueOf(z));
+		if (c == null || c.cells.isEmpty())
+			return false;
+		int qx = cell(x);
+		int qy = cell(y);
+		// Rings beyond this one only hold cells that were never used
+		int maxRing = Math.max(Math.max(qx - c.minCx, c.maxCx - qx), Math.max(
+				qy - c.minCy, c.maxCy - qy));
+		boolean found = false;
+		long best = Long.MAX_VALUE;
+		for (int r = 0; r <= maxRing; r++) {
+			// Ring of cells at distance r (in cells) from the cell of (x,y)
+			for (int cy = qy - r; cy <= qy + r; cy++) {
+				int step = cy == qy - r || cy == qy + r ? 1 : 2 * r;
+				for (int cx = qx - r; cx <= qx + r; cx += step) {
+					Bucket b = c.get(cx, cy);
+					if (b != null)
+						for (int i = 0; i < b.n; i++) {
+							long dx = b.xy[2 * i] - x;
+							long dy = b.xy[2 * i + 1] - y;
+							long d2 = dx * dx + dy * dy;
+							if (d2 < best) {
+								best = d2;
+								xy[0] = b.xy[2 * i];
+								xy[1] = b.xy[2 * i + 1];
+								found = true;
+							}
+						}
+					if (step == 0)
+						break;
+				}
+			}
+			// Every cell of the next rings is at least r cells away
+			long reach = (long) r * CELL_SIZE;
+			if (found && best <= reach * reach)
+				break;
+		}
+		return found;
+	}
+
+	/**
+	 * Appends to dest the markers of slice z (of every slice if z is 0) that
+	 * may lie inside the rectangle (x0,y0)-(x1,y1): all the markers of the
+	 * cells that overlap it
+	 */
+	public void getMarkers(int z, int x0, int y0, int x1, int y1,
+			TextureMeasuresCellCntrMarkerVector dest) {
+		if (z != 0) {
+			Cells c = (Cells) slices.get(Integer.valueOf(z));
+			if (c != null)
+				getMarkers(c, x0, y0, x1, y1, dest);
+			return;
+		}
+		Iterator it = slices.values().iterator();
+		while (it.hasNext())
+			getMarkers((Cells) it.next(), x0, y0, x1, y1, dest);
+	}
+
+	private static void getMarkers(Cells c, int x0, int y0, int x1, int y1,
+			TextureMeasuresCellCntrMarkerVector dest) {
+		int cx0 = Math.max(cell(x0), c.minCx);
+		int cx1 = Math.min(cell(x1), c.maxCx);
+		int cy0 = Math.max(cell(y0), c.minCy);
+		int cy1 = Math.min(cell(y1), c.maxCy);
+		if ((long) (cx1 - cx0 + 1) * (cy1 - cy0 + 1) > c.cells.size()) {
+			// Fewer used cells than cells in the rectangle
+			Iterator it = c.cells.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry e = (Map.Entry) it.next();
+				long k = ((Long) e.getKey()).longValue();
+				int cx = (int) (k >> 32);
+				int cy = (int) k;
+				if (cx >= cx0 && cx <= cx1 && cy >= cy0 && cy <= cy1)
+					append((Bucket) e.getValue(), c.z, dest);
+			}
+			return;
+		}
+		for (int cy = cy0; cy <= cy1; cy++)
+			for (int cx = cx0; cx <= cx1; cx++) {
+				Bucket b = c.get(cx, cy);
+				if (b != null)
+					append(b, c.z, dest);
+			}
+	}
+
+	private static void append(Bucket b, int z,
+			TextureMeasuresCellCntrMarkerVector dest) {
+		for (int i = 0; i < b.n; i++)
+			dest.addMarker(b.xy[2 * i], b.xy[2 * i + 1], z);
+	}
+}
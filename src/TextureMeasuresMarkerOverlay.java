@@ -0,0 +1,182 @@
+//=====================================================
+//Name:           TextureMeasuresMarkerOverlay
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Cached drawing of the markers of the counter window. The
+//                squares (and numbers) of the markers are drawn into a
+//                transparent image that covers the visible source rectangle
+//                and a margin of a quarter of it on each side, at the
+//                current magnification, for the current slice. Repaints
+//                only copy this image; it is drawn again when the slice,
+//                magnification, radius or display options change, or when
+//                the view is panned beyond the margin. Adding or removing a
+//                marker redraws only the region of the image around it;
+//                any other change of the markers is detected by their
+//                modification counts and redraws the whole image.
+//=====================================================
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Vector;
+
+public class TextureMeasuresMarkerOverlay {
+	private Font font;
+	private BufferedImage image;
+	// Source rectangle covered by the image
+	private Rectangle area = new Rectangle();
+	private double magnification;
+	private int slice;
+	private int radius;
+	private boolean showNumbers;
+	private boolean showAll;
+	// Marker vectors drawn and their modification counts when drawn
+	private Object[] vectors = new Object[0];
+	private int[] modCounts = new int[0];
+	// Markers of the type being drawn that may be visible
+	private TextureMeasuresCellCntrMarkerVector visible = new TextureMeasuresCellCntrMarkerVector(0);
+
+	public TextureMeasuresMarkerOverlay(Font font) {
+		this.font = font;
+	}
+
+	/**
+	 * Draws the markers of the vectors of typeVector visible in srcRect,
+	 * drawing the cached image again first if it is stale
+	 */
+	public void paint(Graphics2D g, Vector typeVector, Rectangle srcRect,
+			double magnification, int slice, int radius, boolean showNumbers,
+			boolean showAll) {
+		if (image == null || magnification != this.magnification
+				|| slice != this.slice || radius != this.radius
+				|| showNumbers != this.showNumbers || showAll != this.showAll
+				|| !area.contains(srcRect) || !isCurrent(typeVector)) {
+			this.magnification = magnification;
+			this.slice = slice;
+			this.radius = radius;
+			this.showNumbers = showNumbers;
+			this.showAll = showAll;
+			area = new Rectangle(srcRect);
+			area.grow(Math.max(srcRect.width / 4, 1), Math.max(
+					srcRect.height / 4, 1));
+			int width = (int) Math.ceil(area.width * magnification) + 1;
+			int height = (int) Math.ceil(area.height * magnification) + 1;
+			if (image == null || image.getWidth() != width
+					|| image.getHeight() != height)
+				image = new BufferedImage(width, height,
+						BufferedImage.TYPE_INT_ARGB);
+			draw(typeVector, area);
+		}
+		g.drawImage(image, (int) Math.round((area.x - srcRect.x)
+				* magnification), (int) Math.round((area.y - srcRect.y)
+				* magnification), null);
+	}
+
+	/**
+	 * Redraws the region of the image around a marker that has just been
+	 * added to or removed from mv at (x,y,z). Returns the region in source
+	 * coordinates, which must be repainted.
+	 */
+	public Rectangle update(Vector typeVector,
+			TextureMeasuresCellCntrMarkerVector mv, int x, int y, int z) {
+		int margin = getMargin(radius, showNumbers, magnification);
+		Rectangle dirty = new Rectangle(x - margin, y - margin,
+				2 * margin + 1, 2 * margin + 1);
+		int t = typeVector.indexOf(mv);
+		if (t < 0)
+			return dirty;
+		if (image == null || !isCurrent(typeVector, t)) {
+			// Another change that was not reported; draw everything again
+			image = null;
+			return dirty;
+		}
+		modCounts[t] = mv.getModCount();
+		if ((showAll || z == slice) && dirty.intersects(area))
+			draw(typeVector, dirty.intersection(area));
+		return dirty;
+	}
+
+	/** Draws the whole image again at the next paint */
+	public void invalidate() {
+		image = null;
+	}
+
+	/**
+	 * Distance from a marker, in source pixels, within which its square and
+	 * number are drawn
+	 */
+	public static int getMargin(int radius, boolean showNumbers,
+			double magnification) {
+		int margin = radius + 1;
+		if (showNumbers)
+			margin += (int) Math.ceil(32 / magnification);
+		return margin;
+	}
+
+	// Clears the region r (in source coordinates) of the image and draws the
+	// markers in it
+	private void draw(Vector typeVector, Rectangle r) {
+		Graphics2D g = image.createGraphics();
+		int x0 = (int) Math.floor((r.x - area.x) * magnification);
+		int y0 = (int) Math.floor((r.y - area.y) * magnification);
+		int x1 = (int) Math.ceil((r.x + r.width - area.x) * magnification);
+		int y1 = (int) Math.ceil((r.y + r.height - area.y) * magnification);
+		g.setClip(x0, y0, x1 - x0, y1 - y0);
+		g.setComposite(AlphaComposite.Clear);
+		g.fillRect(x0, y0, x1 - x0, y1 - y0);
+		g.setComposite(AlphaComposite.SrcOver);
+		g.setStroke(new BasicStroke(1f));
+		g.setFont(font);
+
+		int margin = getMargin(radius, showNumbers, magnification);
+		int querySlice = showAll ? 0 : slice;
+		vectors = typeVector.toArray();
+		if (modCounts.length != vectors.length)
+			modCounts = new int[vectors.length];
+		for (int t = 0; t < vectors.length; t++) {
+			TextureMeasuresCellCntrMarkerVector mv = (TextureMeasuresCellCntrMarkerVector) vectors[t];
+			modCounts[t] = mv.getModCount();
+			int typeID = mv.getType();
+			g.setColor(mv.getColor());
+			visible.clear();
+			mv.getMarkers(querySlice, r.x - margin, r.y - margin, r.x
+					+ r.width + margin, r.y + r.height + margin, visible);
+			for (int i = 0; i < visible.size(); i++) {
+				double xM = ((visible.getX(i) - area.x) * magnification);
+				double yM = ((visible.getY(i) - area.y) * magnification);
+				g.drawRect((int) (xM - radius * magnification),
+						(int) (yM - radius * magnification),
+						(int) (2 * radius * magnification),
+						(int) (2 * radius * magnification));
+				if (showNumbers)
+					g.drawString(Integer.toString(typeID), (int) xM + 3,
+							(int) yM - 3);
+			}
+		}
+		g.dispose();
+	}
+
+	// Whether the image shows the current markers of all the vectors, but
+	// the one at index except (whose count has changed once)
+	private boolean isCurrent(Vector typeVector, int except) {
+		if (typeVector.size() != vectors.length)
+			return false;
+		for (int t = 0; t < vectors.length; t++) {
+			TextureMeasuresCellCntrMarkerVector mv = (TextureMeasuresCellCntrMarkerVector) typeVector
+					.get(t);
+			if (mv != vectors[t])
+				return false;
+			int expected = t == except ? modCounts[t] + 1 : modCounts[t];
+			if (mv.getModCount() != expected)
+				return false;
+		}
+		return true;
+	}
+
+	private boolean isCurrent(Vector typeVector) {
+		return isCurrent(typeVector, -1);
+	}
+}
@@ -0,0 +1,152 @@
+//=====================================================
+//Name:           TextureMeasuresMeasurement
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Measurement of the markers of the counter window, to be
+//                run on a background thread. The coordinates of the markers
+//                are copied when it is created, so the markers may be edited
+//                while it runs. The markers of all the types are measured at
+//                once, so each slice is read and quantized only once, and
+//                their rows are added to the results, in the order of the
+//                types and of the markers, as soon as the markers before
+//                them have been measured too. The results are flushed every
+//                BATCH rows. If the measurement is canceled the results keep
+//                the rows added before the cancel.
+//=====================================================
+
+import ij.ImageStack;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Vector;
+
+public class TextureMeasuresMeasurement implements Runnable {
+	// Markers measured between two flushes of the results
+	static final int BATCH = 4096;
+
+	private TextureMeasuresMeasurer measurer;
+	private ImageStack stack;
+	private TextureMeasuresResults results;
+	// Type and coordinates of each marker, type after type
+	private int[] types;
+	private int[] x;
+	private int[] y;
+	private int[] z;
+	private int nMarkers;
+	// Markers whose rows have been added, and flushed
+	private int nAdded;
+	private int nFlushed;
+	// Exception of a flush, which cancels the measurement
+	private IOException flushError;
+	private volatile boolean done;
+	private volatile Exception error;
+
+	/**
+	 * Measurement of the markers of the vectors of typeVector with a measurer
+	 * that is used by this measurement only
+	 */
+	public TextureMeasuresMeasurement(TextureMeasuresMeasurer measurer,
+			ImageStack stack, Vector typeVector, TextureMeasuresResults results) {
+		this.measurer = measurer;
+		this.stack = stack;
+		this.results = results;
+		for (int t = 0; t < typeVector.size(); t++)
+			nMarkers += ((TextureMeasuresCellCntrMarkerVector) typeVector.get(t))
+					.size();
+		types = new int[nMarkers];
+		x = new int[nMarkers];
+		y = new int[nMarkers];
+		z = new int[nMarkers];
+		int first = 0;
+		int[] tx = new int[0];
+		int[] ty = new int[0];
+		int[] tz = new int[0];
+		for (int t = 0; t < typeVector.size(); t++) {
+			TextureMeasuresCellCntrMarkerVector mv = (TextureMeasuresCellCntrMarkerVector) typeVector
+					.get(t);
+			int count = mv.size();
+			if (tx.length < count) {
+				tx = new int[count];
+				ty = new int[count];
+				tz = new int[count];
+			}
+			mv.getCoordinates(tx, ty, tz);
+			Arrays.fill(types, first, first + count, mv.getType());
+			System.arraycopy(tx, 0, x, first, count);
+			System.arraycopy(ty, 0, y, first, count);
+			System.arraycopy(tz, 0, z, first, count);
+			first += count;
+		}
+	}
+
+	public void run() {
+		try {
+			measurer.measure(stack, x, y, z, nMarkers,
+					new TextureMeasuresMeasurer.Listener() {
+						public void measured(double[] values, int count) {
+							addRows(values, count);
+						}
+					});
+			if (flushError != null)
+				throw flushError;
+			results.close();
+		} catch (Exception e) {
+			error = e;
+		} finally {
+			done = true;
+		}
+	}
+
+	// Adds the rows of the markers nAdded ... count-1, whose values are
+	// complete, and flushes them if there are BATCH rows or the last one
+	private void addRows(double[] values, int count) {
+		int nValues = measurer.getValueCount();
+		int nSlices = stack.getSize();
+		for (int i = nAdded; i < count; i++)
+			if (measurer.isMeasurable(stack, x[i], y[i], z[i]))
+				results.addRow(types[i], TextureMeasuresMeasurer.getSlice(
+						z[i], nSlices), x[i], y[i], values, i * nValues);
+		nAdded = count;
+		if (flushError == null
+				&& (nAdded - nFlushed >= BATCH || nAdded == nMarkers)) {
+			try {
+				results.flush();
+			} catch (IOException e) {
+				flushError = e;
+				measurer.cancel();
+			}
+			nFlushed = nAdded;
+		}
+	}
+
+	/** Stops the measurement after the markers being measured */
+	public void cancel() {
+		measurer.cancel();
+	}
+
+	public boolean isCanceled() {
+		return measurer.isCanceled();
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	/** Exception that ended the measurement, or null */
+	public Exception getError() {
+		return error;
+	}
+
+	public int getMarkerCount() {
+		return nMarkers;
+	}
+
+	/** Number of markers measured so far */
+	public int getMeasuredCount() {
+		return measurer.getMeasuredCount();
+	}
+
+	/** Number of rows written to the results */
+	public int getRowCount() {
+		return results.getRowCount();
+	}
+}
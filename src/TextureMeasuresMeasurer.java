@@ -0,0 +1,425 @@
+//=====================================================
+//Name:           TextureMeasuresMeasurer
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Measures the texture of the probe around each marker, on the
+//                slice of the marker. Markers are grouped by slice and split
+//                in chunks that are measured in parallel by a pool of
+//                threads, each one with its own workspace. The features are
+//                returned in the order of the markers, so the result does not
+//                depend on the number of threads. The number of markers
+//                measured can be read while a measurement runs, a listener
+//                is told as soon as the values of the first markers are
+//                complete, and a measurement can be canceled from another
+//                thread.
+//=====================================================
+
+import ij.ImageStack;
+import ij.Prefs;
+import ij.process.ColorProcessor;
+import ij.process.ImageProcessor;
+import java.util.Arrays;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TextureMeasuresMeasurer {
+	/** Direction and step of each group of features in a measurement */
+	public static final String[] DIRECTIONS = { "0 degrees", "0 degrees",
+			"90 degrees", "90 degrees", "180 degrees", "180 degrees",
+			"270 degrees", "270 degrees" };
+	public static final int[] STEPS = { 1, 3, 1, 3, 1, 3, 1, 3 };
+	// 0 and 180 degrees (and 90 and 270 degrees) give the same matrices, so
+	// only half of the offsets are computed
+	private static final GLCMOffsetPlan PLAN = new GLCMOffsetPlan(GLCMOffset
+			.fromDirections(DIRECTIONS, STEPS));
+	private static final String[] OFFSET_LABELS = { "0_1", "0_2", "90_1",
+			"90_2", "180_1", "180_2", "270_1", "270_2" };
+
+	// Number of markers measured by a task
+	private static final int CHUNK = 64;
+
+	private TextureAnalyzer textureAnalyzer = new GLCM_Texture();
+	private int radius = 10;
+	private int grayLevels = 256;
+	private int grayRange = GLCMQuantizer.FULL_RANGE;
+	private double saturated = 0.35;
+	private int nThreads = Prefs.getThreads();
+
+	private AtomicInteger measured = new AtomicInteger();
+	private volatile boolean canceled;
+
+	/** Receives the values of a measurement while it runs */
+	public interface Listener {
+		/**
+		 * Called by the measuring thread when the values of the markers
+		 * 0 ... count-1 are complete, with a count larger than the last one
+		 */
+		public void measured(double[] values, int count);
+	}
+
+	public TextureMeasuresMeasurer() {
+	}
+
+	/**
+	 * New measurer with the settings of another one, and no markers measured
+	 */
+	public TextureMeasuresMeasurer(TextureMeasuresMeasurer settings) {
+		textureAnalyzer = settings.textureAnalyzer;
+		radius = settings.radius;
+		grayLevels = settings.grayLevels;
+		grayRange = settings.grayRange;
+		saturated = settings.saturated;
+		nThreads = settings.nThreads;
+	}
+
+	/** Number of values measured per marker */
+	public int getValueCount() {
+		return textureAnalyzer.getFeatureCount() * DIRECTIONS.length;
+	}
+
+	/**
+	 * Column headings of the measurements: the type (with the number of gray
+	 * levels) and each feature of the analyzer for each direction and step
+	 */
+	public String getColumnHeadings() {
+		String headings = "Type (" + grayLevels + " levels)";
+		String[] names = textureAnalyzer.getFeatureNames();
+		for (int k = 0; k < OFFSET_LABELS.length; k++)
+			for (int i = 0; i < names.length; i++)
+				headings += "\t " + names[i] + OFFSET_LABELS[k];
+		return headings;
+	}
+
+	/**
+	 * Features of the first count markers at (x[i],y[i]) of a slice. The
+	 * getValueCount() values of the i-th marker start at i*getValueCount().
+	 * Markers whose probe falls outside the slice get NaN.
+	 */
+	public double[] measure(ImageProcessor ip, int[] x, int[] y, int count) {
+		ImageStack stack = new ImageStack(ip.getWidth(), ip.getHeight());
+		stack.addSlice(null, ip);
+		return measure(stack, x, y, new int[count], count);
+	}
+
+	/**
+	 * Features of the first count markers at (x[i],y[i]) of the slices z[i]
+	 * (1 ... stack size) of a stack, laid out as above. Each marker is
+	 * measured on its own slice, with the quantization of that slice. A stack
+	 * of one slice is used for every marker, whatever its z. Markers on no
+	 * slice of the stack get NaN.
+	 * The slices are read, quantized and measured in parallel, a few slices
+	 * ahead of the ones being measured, so a virtual stack is read while the
+	 * previous slices are measured and only those few slices are in memory.
+	 * If the measurer is canceled the values are incomplete.
+	 */
+	public double[] measure(ImageStack stack, int[] x, int[] y, int[] z,
+			int count) {
+		return measure(stack, x, y, z, count, null);
+	}
+
+	/**
+	 * Features of the markers, as above, telling the listener (if not null)
+	 * each time the values of more of the first markers are complete. If the
+	 * measurer is canceled, the listener has been told of the markers whose
+	 * values are complete.
+	 */
+	public double[] measure(final ImageStack stack, final int[] x,
+			final int[] y, int[] z, int count, Listener listener) {
+		final int nValues = getValueCount();
+		final double[] values = new double[count * nValues];
+
+		// Group the markers by slice, keeping their order within a slice
+		int nSlices = stack.getSize();
+		int[] start = new int[nSlices + 2];
+		for (int i = 0; i < count; i++)
+			start[getSlice(z[i], nSlices) + 1]++;
+		for (int s = 1; s <= nSlices + 1; s++)
+			start[s] += start[s - 1];
+		final int[] order = new int[count];
+		int[] next = start.clone();
+		for (int i = 0; i < count; i++)
+			order[next[getSlice(z[i], nSlices)]++] = i;
+		for (int n = start[0]; n < start[1]; n++)
+			Arrays.fill(values, order[n] * nValues, (order[n] + 1) * nValues,
+					Double.NaN);
+		measured.addAndGet(start[1] - start[0]);
+		Progress progress = new Progress(listener, values, count);
+		progress.complete(order, start[0], start[1]);
+		int nUsed = 0;
+		int[] used = new int[nSlices];
+		for (int s = 1; s <= nSlices; s++)
+			if (start[s + 1] > start[s])
+				used[nUsed++] = s;
+
+		if (nThreads <= 1 || count <= CHUNK) {
+			for (int u = 0; u < nUsed && !canceled; u++) {
+				int s = used[u];
+				Slice slice = new Slice(stack.getProcessor(s));
+				for (int first = start[s]; first < start[s + 1]; first += CHUNK) {
+					int to = Math.min(first + CHUNK, start[s + 1]);
+					if (measure(slice, x, y, order, first, to, values))
+						progress.complete(order, first, to);
+				}
+			}
+			return values;
+		}
+
+		int lookahead = nThreads + 1;
+		ExecutorService executor = Executors.newFixedThreadPool(nThreads);
+		try {
+			Future[] slices = new Future[nUsed];
+			// Chunks submitted and not completed yet, in their order
+			Vector chunks = new Vector();
+			for (int u = 0; u < Math.min(lookahead, nUsed); u++)
+				slices[u] = executor.submit(prepare(stack, used[u]));
+			for (int u = 0; u < nUsed && !canceled; u++) {
+				final Slice slice = (Slice) slices[u].get();
+				int s = used[u];
+				for (int first = start[s]; first < start[s + 1]; first += CHUNK) {
+					final int from = first;
+					final int to = Math.min(first + CHUNK, start[s + 1]);
+					chunks.add(new Chunk(u, from, to, executor
+							.submit(new Callable() {
+								public Object call() {
+									return Boolean.valueOf(measure(slice, x, y,
+											order, from, to, values));
+								}
+							})));
+				}
+				if (u + lookahead < nUsed)
+					slices[u + lookahead] = executor.submit(prepare(stack,
+							used[u + lookahead]));
+				// Keep only the slices ahead in memory
+				complete(chunks, u - lookahead, progress, order);
+				if (u >= lookahead)
+					slices[u - lookahead] = null;
+			}
+			// Chunks already submitted stop soon if canceled
+			complete(chunks, nUsed, progress, order);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return values;
+	}
+
+	/** Features of the markers of a marker vector, in its order */
+	public double[] measure(ImageStack stack,
+			TextureMeasuresCellCntrMarkerVector mv) {
+		int count = mv.size();
+		int[] x = new int[count];
+		int[] y = new int[count];
+		int[] z = new int[count];
+		mv.getCoordinates(x, y, z);
+		return measure(stack, x, y, z, count);
+	}
+
+	/** Label of a marker type in the first column of the measurements */
+	public static String getTypeLabel(int type) {
+		switch (type) {
+		case 1:
+			return "Bg ";
+		case 2:
+			return "Fg ";
+		}
+		return "";
+	}
+
+	/**
+	 * Slice (1 ... stack size) on which a marker of slice z is measured, or 0
+	 * if it is on none
+	 */
+	public static int getSlice(int z, int nSlices) {
+		if (nSlices == 1)
+			return 1;
+		return z >= 1 && z <= nSlices ? z : 0;
+	}
+
+	/** True if the probe around (x,y) has some pixel inside the slice */
+	public boolean isMeasurable(ImageProcessor ip, int x, int y) {
+		return x + radius >= 0 && x - radius < ip.getWidth() && y + radius >= 0
+				&& y - radius < ip.getHeight();
+	}
+
+	/**
+	 * True if the probe around (x,y) has some pixel inside the slice of the
+	 * stack on which a marker of slice z is measured
+	 */
+	public boolean isMeasurable(ImageStack stack, int x, int y, int z) {
+		return getSlice(z, stack.getSize()) != 0 && x + radius >= 0
+				&& x - radius < stack.getWidth() && y + radius >= 0
+				&& y - radius < stack.getHeight();
+	}
+
+	/** A slice read from the stack with its quantizer */
+	private class Slice {
+		Object pixels;
+		int width;
+		int height;
+		GLCMQuantizer quantizer;
+
+		Slice(ImageProcessor ip) {
+			if (ip instanceof ColorProcessor)
+				ip = ip.convertToByte(true);
+			pixels = ip.getPixels();
+			width = ip.getWidth();
+			height = ip.getHeight();
+			quantizer = new GLCMQuantizer(ip, grayLevels, grayRange, saturated);
+		}
+	}
+
+	private Callable prepare(final ImageStack stack, final int s) {
+		return new Callable() {
+			public Object call() {
+				return new Slice(stack.getProcessor(s));
+			}
+		};
+	}
+
+	/** Markers order[from] ... order[to-1] of the u-th slice measured */
+	private static class Chunk {
+		int u;
+		int from;
+		int to;
+		// Boolean.TRUE if every marker of the chunk has been measured
+		Future measured;
+
+		Chunk(int u, int from, int to, Future measured) {
+			this.u = u;
+			this.from = from;
+			this.to = to;
+			this.measured = measured;
+		}
+	}
+
+	/**
+	 * Removes the first chunks from chunks, in their order: those of the
+	 * slices up to the last-th, waiting for them, and then those that are
+	 * done. Tells progress of the chunks that were not stopped by a cancel.
+	 */
+	private static void complete(Vector chunks, int last, Progress progress,
+			int[] order) throws InterruptedException, ExecutionException {
+		while (!chunks.isEmpty()) {
+			Chunk chunk = (Chunk) chunks.get(0);
+			if (chunk.u > last && !chunk.measured.isDone())
+				return;
+			chunks.remove(0);
+			if (((Boolean) chunk.measured.get()).booleanValue())
+				progress.complete(order, chunk.from, chunk.to);
+		}
+	}
+
+	/** Markers of a measurement whose values are complete */
+	private static class Progress {
+		Listener listener;
+		double[] values;
+		boolean[] complete;
+		// Number of first markers that are complete
+		int count;
+
+		Progress(Listener listener, double[] values, int nMarkers) {
+			this.listener = listener;
+			this.values = values;
+			complete = new boolean[nMarkers];
+		}
+
+		/** Markers order[first] ... order[last-1] are complete */
+		void complete(int[] order, int first, int last) {
+			for (int n = first; n < last; n++)
+				complete[order[n]] = true;
+			int previous = count;
+			while (count < complete.length && complete[count])
+				count++;
+			if (listener != null && count > previous)
+				listener.measured(values, count);
+		}
+	}
+
+	/**
+	 * Measures the markers order[first] ... order[last-1] of a slice with the
+	 * calling thread's workspace. Returns false if a cancel stopped it before
+	 * the last marker.
+	 */
+	private boolean measure(Slice slice, int[] x, int[] y, int[] order,
+			int first, int last, double[] values) {
+		GLCMWorkspace workspace = GLCMWorkspace.get();
+		int nValues = getValueCount();
+		int nFeatures = textureAnalyzer.getFeatureCount();
+		GLCMOffset[] offsets = PLAN.getUniqueOffsets();
+		int W = slice.width;
+		int H = slice.height;
+		int n;
+		for (n = first; n < last && !canceled; n++) {
+			int i = order[n];
+			// The region is the part of the probe that falls inside the image
+			int x0 = Math.max(x[i] - radius, 0);
+			int y0 = Math.max(y[i] - radius, 0);
+			int regionW = Math.min(x[i] + radius + 1, W) - x0;
+			int regionH = Math.min(y[i] + radius + 1, H) - y0;
+			if (regionW <= 0 || regionH <= 0) {
+				Arrays.fill(values, i * nValues, (i + 1) * nValues,
+						Double.NaN);
+				continue;
+			}
+			double[] f = textureAnalyzer.run(workspace, slice.pixels, W, x0,
+					y0, regionW, regionH, slice.quantizer, offsets);
+			PLAN.expand(f, nFeatures, values, i * nValues);
+		}
+		measured.addAndGet(n - first);
+		return n == last;
+	}
+
+	/** Number of markers measured (or found on no slice) so far */
+	public int getMeasuredCount() {
+		return measured.get();
+	}
+
+	/** Stops the measurements of this measurer as soon as possible */
+	public void cancel() {
+		canceled = true;
+	}
+
+	public boolean isCanceled() {
+		return canceled;
+	}
+
+	public TextureAnalyzer getTextureAnalyzer() {
+		return textureAnalyzer;
+	}
+
+	public void setTextureAnalyzer(TextureAnalyzer textureAnalyzer) {
+		this.textureAnalyzer = textureAnalyzer;
+	}
+
+	public int getRadius() {
+		return radius;
+	}
+
+	public void setRadius(int radius) {
+		this.radius = radius;
+	}
+
+	public void setQuantization(int grayLevels, int grayRange, double saturated) {
+		this.grayLevels = grayLevels;
+		this.grayRange = grayRange;
+		this.saturated = saturated;
+	}
+
+	public int getThreads() {
+		return nThreads;
+	}
+
+	public void setThreads(int nThreads) {
+		this.nThreads = nThreads;
+	}
+}
@@ -0,0 +1,171 @@
+//=====================================================
+//Name:           TextureMeasuresResults
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Destination of the rows of a measurement. The rows are
+//                kept in columns while they come. Each flush appends the
+//                rows added since the previous one in the usual text format
+//                to TextureMeasures.txt (see TextureFeatureExporter) and,
+//                optionally, adds them to a ResultsTable, which is displayed
+//                again; the table is only touched on the event dispatch
+//                thread, so rows may be added and flushed from any one
+//                thread. When the results are closed all the rows are
+//                appended as one block to the feature store (see
+//                TextureFeatureStore).
+//=====================================================
+
+import ij.measure.ResultsTable;
+import java.awt.EventQueue;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.StringTokenizer;
+
+public class TextureMeasuresResults {
+	private TextureFeatureStore store;
+	private String textPath;
+	private TextureFeatureExporter text;
+	private ResultsTable table;
+	private String labelHeading;
+	private int[] tableColumns;
+
+	private String image;
+	private String[] columnNames;
+	private int nRows;
+	// Rows already written to the text file and the table
+	private int nFlushed;
+	private int[] slice = new int[256];
+	private int[] type = new int[256];
+	private int[] x = new int[256];
+	private int[] y = new int[256];
+	// Row by row
+	private double[] values;
+
+	/**
+	 * Results of a measurement of an image. The columns are named after the
+	 * tab-separated headings; the first one names the type label. The store,
+	 * the text file and the table are each optional (null).
+	 */
+	public TextureMeasuresResults(TextureFeatureStore store, String textPath,
+			ResultsTable table, String image, String columnHeadings) {
+		this.store = store;
+		this.textPath = textPath;
+		this.table = table;
+		this.image = image;
+		StringTokenizer st = new StringTokenizer(columnHeadings, "\t");
+		labelHeading = st.nextToken().trim();
+		columnNames = new String[st.countTokens()];
+		for (int j = 0; j < columnNames.length; j++)
+			columnNames[j] = st.nextToken().trim();
+		values = new double[slice.length * columnNames.length];
+		if (table != null) {
+			tableColumns = new int[columnNames.length];
+			for (int j = 0; j < columnNames.length; j++)
+				tableColumns[j] = table.getFreeColumn(columnNames[j]);
+			table.setPrecision(9);
+		}
+	}
+
+	/**
+	 * Adds the row of the marker at (x,y) of a slice, whose values start at
+	 * values[offset]. The rows of a type must be added one after the other.
+	 */
+	public void addRow(int type, int slice, int x, int y, double[] values,
+			int offset) {
+		int nValues = columnNames.length;
+		if (nRows == this.slice.length) {
+			int capacity = 2 * nRows;
+			this.slice = Arrays.copyOf(this.slice, capacity);
+			this.type = Arrays.copyOf(this.type, capacity);
+			this.x = Arrays.copyOf(this.x, capacity);
+			this.y = Arrays.copyOf(this.y, capacity);
+			this.values = Arrays.copyOf(this.values, capacity * nValues);
+		}
+		this.slice[nRows] = slice;
+		this.type[nRows] = type;
+		this.x[nRows] = x;
+		this.y[nRows] = y;
+		System.arraycopy(values, offset, this.values, nRows * nValues, nValues);
+		nRows++;
+	}
+
+	/** Number of rows added */
+	public int getRowCount() {
+		return nRows;
+	}
+
+	/**
+	 * Writes the rows added since the last flush to the text file and adds
+	 * them to the table
+	 */
+	public void flush() throws IOException {
+		final TextureFeatureStore.Rows rows = getRows(nFlushed, nRows);
+		nFlushed = nRows;
+		if (textPath != null) {
+			if (text == null)
+				text = new TextureFeatureExporter(textPath, true, false);
+			text.write(rows);
+			text.flush();
+		}
+		if (table != null && rows.nRows > 0)
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					addToTable(rows);
+					table.show("Results");
+				}
+			});
+	}
+
+	/**
+	 * Flushes the rows, ends the measurement in the text file, writes all the
+	 * rows to the store and shows the table
+	 */
+	public void close() throws IOException {
+		flush();
+		if (textPath != null) {
+			if (text == null)
+				text = new TextureFeatureExporter(textPath, true, false);
+			try {
+				text.writeSeparator();
+			} finally {
+				text.close();
+			}
+		}
+		if (store != null && nRows > 0)
+			store.append(getRows(0, nRows));
+		// The flushes have shown the table if there is any row
+		if (table != null && nRows == 0)
+			EventQueue.invokeLater(new Runnable() {
+				public void run() {
+					table.show("Results");
+				}
+			});
+	}
+
+	// Rows first ... last-1 in columns
+	private TextureFeatureStore.Rows getRows(int first, int last) {
+		int nValues = columnNames.length;
+		int n = last - first;
+		TextureFeatureStore.Rows rows = new TextureFeatureStore.Rows(image,
+				columnNames, n);
+		System.arraycopy(slice, first, rows.slice, 0, n);
+		System.arraycopy(type, first, rows.type, 0, n);
+		System.arraycopy(x, first, rows.x, 0, n);
+		System.arraycopy(y, first, rows.y, 0, n);
+		for (int j = 0; j < nValues; j++) {
+			double[] column = rows.columns[j];
+			for (int i = 0; i < n; i++)
+				column[i] = values[(first + i) * nValues + j];
+		}
+		return rows;
+	}
+
+	private void addToTable(TextureFeatureStore.Rows rows) {
+		for (int i = 0; i < rows.nRows; i++) {
+			table.incrementCounter();
+			table.addLabel(labelHeading, TextureMeasuresMeasurer
+					.getTypeLabel(rows.type[i]));
+			for (int j = 0; j < columnNames.length; j++)
+				table.addValue(tableColumns[j], rows.columns[j][i]);
+		}
+	}
+}
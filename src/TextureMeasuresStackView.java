@@ -0,0 +1,76 @@
+//=====================================================
+//Name:           TextureMeasuresStackView
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Stack of the counter window: a view of the stack of the
+//                original image that copies no pixels. Each slice is read
+//                from the original stack when it is needed, and is wrapped
+//                in a new processor that shares the pixel array of the
+//                original, so the counter window and the original image
+//                show the same pixels without holding them twice. If the
+//                original stack is itself virtual its processors are
+//                returned as they are read.
+//=====================================================
+
+import ij.ImageStack;
+import ij.VirtualStack;
+import ij.process.ByteProcessor;
+import ij.process.ColorProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import ij.process.ShortProcessor;
+import java.awt.image.ColorModel;
+
+public class TextureMeasuresStackView extends VirtualStack {
+	private ImageStack stack;
+
+	/** View of a stack */
+	public TextureMeasuresStackView(ImageStack stack) {
+		super(stack.getWidth(), stack.getHeight(), stack.getColorModel(), null);
+		this.stack = stack;
+	}
+
+	public ImageProcessor getProcessor(int n) {
+		if (stack.isVirtual())
+			return stack.getProcessor(n);
+		return wrap(stack.getPixels(n), stack.getWidth(), stack.getHeight(),
+				stack.getColorModel());
+	}
+
+	public Object getPixels(int n) {
+		if (!stack.isVirtual())
+			return stack.getPixels(n);
+		return getProcessor(n).getPixels();
+	}
+
+	public void setPixels(Object pixels, int n) {
+		stack.setPixels(pixels, n);
+	}
+
+	public int getSize() {
+		return stack.getSize();
+	}
+
+	public String getSliceLabel(int n) {
+		return stack.getSliceLabel(n);
+	}
+
+	public int getBitDepth() {
+		return stack.getBitDepth();
+	}
+
+	/**
+	 * New processor for a pixel array of a slice, which is shared and not
+	 * copied
+	 */
+	public static ImageProcessor wrap(Object pixels, int width, int height,
+			ColorModel cm) {
+		if (pixels instanceof byte[])
+			return new ByteProcessor(width, height, (byte[]) pixels, cm);
+		else if (pixels instanceof short[])
+			return new ShortProcessor(width, height, (short[]) pixels, cm);
+		else if (pixels instanceof float[])
+			return new FloatProcessor(width, height, (float[]) pixels, cm);
+		return new ColorProcessor(width, height, (int[]) pixels);
+	}
+}
@@ -0,0 +1,93 @@
+//=====================================================
+//Name:           WriteBinary
+//Project:        Gray Level Correlation Matrix Texture Analyzer
+//
+//Comment:        Writes the markers in a compact binary file (.cmb), about
+//                3 to 6 bytes per marker instead of the 150 of the XML file.
+//                All integers are variable-length (7 bits per byte, low
+//                bits first); signed ones are zigzag encoded first so that
+//                small negative values stay short.
+//
+//                "CMB" and the format version (1 byte each)
+//                image file name (length, then UTF-8 bytes)
+//                current type index (signed)
+//                number of types
+//                for each type: type (signed), number of markers, and for
+//                each marker x, y and z as signed differences with the
+//                previous marker of the type (the first one with 0,0,0)
+//
+//                ReadBinary reads these files.
+//=====================================================
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Vector;
+
+public class WriteBinary {
+	static final byte[] MAGIC = { 'C', 'M', 'B' };
+	static final int VERSION = 1;
+
+	private String filePath;
+
+	public WriteBinary(String filePath) {
+		this.filePath = filePath;
+	}
+
+	public boolean writeBinary(String imgFilename, Vector typeVector,
+			int currentType) {
+		OutputStream out = null;
+		try {
+			out = new BufferedOutputStream(new FileOutputStream(filePath),
+					1 << 16);
+			out.write(MAGIC);
+			out.write(VERSION);
+			byte[] name = imgFilename.getBytes("UTF-8");
+			writeVarint(out, name.length);
+			out.write(name);
+			writeSigned(out, currentType);
+			writeVarint(out, typeVector.size());
+			for (int t = 0; t < typeVector.size(); t++) {
+				TextureMeasuresCellCntrMarkerVector markerVector = (TextureMeasuresCellCntrMarkerVector) typeVector
+						.get(t);
+				writeSigned(out, markerVector.getType());
+				writeVarint(out, markerVector.size());
+				int x = 0, y = 0, z = 0;
+				for (int i = 0; i < markerVector.size(); i++) {
+					writeSigned(out, markerVector.getX(i) - x);
+					writeSigned(out, markerVector.getY(i) - y);
+					writeSigned(out, markerVector.getZ(i) - z);
+					x = markerVector.getX(i);
+					y = markerVector.getY(i);
+					z = markerVector.getZ(i);
+				}
+			}
+			out.close();
+			return true;
+		} catch (IOException e) {
+			System.out.println(e.getMessage());
+			try {
+				if (out != null)
+					out.close();
+			} catch (IOException e2) {
+				// The write has already failed
+			}
+			return false;
+		}
+	}
+
+	private static void writeVarint(OutputStream out, int v)
+			throws IOException {
+		while ((v & ~0x7f) != 0) {
+			out.write((v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write(v);
+	}
+
+	private static void writeSigned(OutputStream out, int v)
+			throws IOException {
+		writeVarint(out, (v << 1) ^ (v >> 31));
+	}
+}
@@ -58,12 +58,10 @@ public class WriteXML{
                 int type = markerVector.getType();
                 out.write("     <Marker_Type>\r\n");
                 out.write("         <Type>" +type+ "</Type>\r\n");
-                ListIterator lit = markerVector.listIterator();
-                while(lit.hasNext()){
-                	TextureMeasuresCellCntrMarker marker = (TextureMeasuresCellCntrMarker)lit.next();
-                    int x = marker.getX();
-                    int y = marker.getY();
-                    int z = marker.getZ();
+                for (int i=0; i<markerVector.size(); i++){
+                    int x = markerVector.getX(i);
+                    int y = markerVector.getY(i);
+                    int z = markerVector.getZ(i);
                     out.write("         <Marker>\r\n");
                     out.write("             <MarkerX>" +x+ "</MarkerX>\r\n");
                     out.write("             <MarkerY>" +y+ "</MarkerY>\r\n");